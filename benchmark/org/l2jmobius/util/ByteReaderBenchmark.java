@@ -0,0 +1,138 @@
+/*
+ * This file is part of the L2ClientDat project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.l2jmobius.util;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reads the same strings with {@link ByteReader} and with {@link OldByteReader}, the time is per string.<br>
+ * The strings repeat as the names of a dat file do, so {@code distinct} sets how often the string cache of {@link ByteReader} is hit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteReaderBenchmark
+{
+	private static final int COUNT = 4096;
+	
+	@Param(
+	{
+		"64",
+		"4096"
+	})
+	public int distinct;
+	
+	@Param(
+	{
+		"false",
+		"true"
+	})
+	public boolean unicode;
+	
+	private ByteBuffer _utfStrings;
+	private ByteBuffer _strings;
+	
+	@Setup
+	public void setup()
+	{
+		final Random random = new Random(distinct);
+		final String[] values = new String[distinct];
+		for (int i = 0; i < distinct; ++i)
+		{
+			final char[] chars = new char[4 + random.nextInt(36)];
+			for (int j = 0; j < chars.length; ++j)
+			{
+				chars[j] = (unicode && ((j % 3) == 0)) ? (char) ('\u0410' + random.nextInt(32)) : (char) ('a' + random.nextInt(26));
+			}
+			values[i] = new String(chars);
+		}
+		
+		final ByteBuilder utfStrings = new ByteBuilder(COUNT * 64);
+		final ByteBuilder strings = new ByteBuilder(COUNT * 64);
+		for (int i = 0; i < COUNT; ++i)
+		{
+			final String value = values[random.nextInt(distinct)];
+			utfStrings.writeUtfString(value, true);
+			strings.writeString(value, true);
+		}
+		_utfStrings = ByteBuffer.wrap(utfStrings.toByteArray());
+		_strings = ByteBuffer.wrap(strings.toByteArray());
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public void readUtfString(Blackhole blackhole) throws Exception
+	{
+		_utfStrings.position(0);
+		for (int i = 0; i < COUNT; ++i)
+		{
+			blackhole.consume(ByteReader.readUtfString(_utfStrings, false));
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public void readUtfStringOld(Blackhole blackhole) throws Exception
+	{
+		_utfStrings.position(0);
+		for (int i = 0; i < COUNT; ++i)
+		{
+			blackhole.consume(OldByteReader.readUtfString(_utfStrings, false));
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public void readString(Blackhole blackhole) throws Exception
+	{
+		_strings.position(0);
+		for (int i = 0; i < COUNT; ++i)
+		{
+			blackhole.consume(ByteReader.readString(_strings, false));
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public void readStringOld(Blackhole blackhole) throws Exception
+	{
+		_strings.position(0);
+		for (int i = 0; i < COUNT; ++i)
+		{
+			blackhole.consume(OldByteReader.readString(_strings, false));
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * This file is part of the L2ClientDat project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.l2jmobius.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writes the same values with {@link ByteWriter} and with {@link OldByteWriter}, the time is per value.<br>
+ * The bytes of both land in the same array, the old methods copy the array they return into it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteWriterBenchmark
+{
+	private static final int COUNT = 1024;
+	
+	@Param(
+	{
+		"false",
+		"true"
+	})
+	public boolean unicode;
+	
+	private final int[] _ints = new int[COUNT];
+	private final float[] _floats = new float[COUNT];
+	private final String[] _colors = new String[COUNT];
+	private final String[] _strings = new String[COUNT];
+	private byte[] _buf;
+	
+	@Setup
+	public void setup()
+	{
+		final Random random = new Random(COUNT);
+		for (int i = 0; i < COUNT; ++i)
+		{
+			// Counters and ids of every size of compact int.
+			_ints[i] = random.nextInt() >> random.nextInt(32);
+			_floats[i] = random.nextFloat() * 1000;
+			_colors[i] = String.format("%08X", random.nextInt());
+			final char[] chars = new char[4 + random.nextInt(36)];
+			for (int j = 0; j < chars.length; ++j)
+			{
+				chars[j] = (unicode && ((j % 3) == 0)) ? (char) ('\u0410' + random.nextInt(32)) : (char) ('a' + random.nextInt(26));
+			}
+			_strings[i] = new String(chars);
+		}
+		_buf = new byte[COUNT * 128];
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public int writeCompactInt()
+	{
+		int offset = 0;
+		for (int value : _ints)
+		{
+			offset = ByteWriter.writeCompactInt(_buf, offset, value);
+		}
+		return offset;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public int writeCompactIntOld()
+	{
+		int offset = 0;
+		for (int value : _ints)
+		{
+			offset = append(OldByteWriter.writeCompactInt(value), offset);
+		}
+		return offset;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public int writeInt()
+	{
+		int offset = 0;
+		for (int value : _ints)
+		{
+			offset = ByteWriter.writeInt(_buf, offset, value);
+		}
+		return offset;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public int writeIntOld()
+	{
+		int offset = 0;
+		for (int value : _ints)
+		{
+			offset = append(OldByteWriter.writeInt(value), offset);
+		}
+		return offset;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public int writeFloat()
+	{
+		int offset = 0;
+		for (float value : _floats)
+		{
+			offset = ByteWriter.writeFloat(_buf, offset, value);
+		}
+		return offset;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public int writeFloatOld()
+	{
+		int offset = 0;
+		for (float value : _floats)
+		{
+			offset = append(OldByteWriter.writeFloat(value), offset);
+		}
+		return offset;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public int writeRGBA()
+	{
+		int offset = 0;
+		for (String value : _colors)
+		{
+			offset = ByteWriter.writeRGBA(_buf, offset, value);
+		}
+		return offset;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public int writeRGBAOld()
+	{
+		int offset = 0;
+		for (String value : _colors)
+		{
+			offset = append(OldByteWriter.writeRGBA(value), offset);
+		}
+		return offset;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public int writeUtfString()
+	{
+		int offset = 0;
+		for (String value : _strings)
+		{
+			offset = ByteWriter.writeUtfString(_buf, offset, value, false);
+		}
+		return offset;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public int writeUtfStringOld()
+	{
+		int offset = 0;
+		for (String value : _strings)
+		{
+			offset = append(OldByteWriter.writeUtfString(value, false), offset);
+		}
+		return offset;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public int writeString()
+	{
+		int offset = 0;
+		for (String value : _strings)
+		{
+			offset = ByteWriter.writeString(_buf, offset, value, false);
+		}
+		return offset;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public int writeStringOld()
+	{
+		int offset = 0;
+		for (String value : _strings)
+		{
+			offset = append(OldByteWriter.writeString(value, false), offset);
+		}
+		return offset;
+	}
+	
+	private int append(byte[] bytes, int offset)
+	{
+		System.arraycopy(bytes, 0, _buf, offset, bytes.length);
+		return offset + bytes.length;
+	}
+}
@@ -79,6 +79,8 @@ import org.l2jmobius.xml.DescriptorWriter;
 public class L2ClientDat extends Application
 {
 	private static final Logger LOGGER = Logger.getLogger(L2ClientDat.class.getName());
+	/** The lines held for the current thread by {@link #groupLogConsole(Runnable)}. */
+	private static final ThreadLocal<List<String>> LOG_GROUP = new ThreadLocal<>();
 	
 	public static final String ENABLED_STR = "Enabled";
 	public static final String DISABLED_STR = "Disabled";
@@ -192,6 +194,13 @@ public class L2ClientDat extends Application
 	
 	public static void addLogConsole(String log, boolean isLog)
 	{
+		final List<String> group = LOG_GROUP.get();
+		if ((group != null) && isLog)
+		{
+			group.add(log);
+			return;
+		}
+		
 		if (isLog)
 		{
 			LOGGER.info(log);
@@ -205,6 +214,68 @@ public class L2ClientDat extends Application
 		Platform.runLater(() -> _textPaneLog.appendText(log + System.lineSeparator()));
 	}
 	
+	/**
+	 * Adds lines held by {@link #groupLogConsole(Runnable)}, one after the other.
+	 * @param logs the lines
+	 */
+	public static void addLogConsole(List<String> logs)
+	{
+		if (logs.isEmpty())
+		{
+			return;
+		}
+		
+		final List<String> group = LOG_GROUP.get();
+		if (group != null)
+		{
+			group.addAll(logs);
+			return;
+		}
+		
+		final StringBuilder text = new StringBuilder();
+		for (String log : logs)
+		{
+			LOGGER.info(log);
+			text.append(log).append(System.lineSeparator());
+		}
+		
+		if (_textPaneLog == null)
+		{
+			return;
+		}
+		
+		Platform.runLater(() -> _textPaneLog.appendText(text.toString()));
+	}
+	
+	/**
+	 * Runs an action holding the lines it logs on the current thread, so the lines of a file processed among others are added together by {@link #addLogConsole(List)}.<br>
+	 * Groups nest, the lines of an inner group added by {@link #addLogConsole(List)} join the outer group.
+	 * @param action the action
+	 * @return the lines logged by the action
+	 */
+	public static List<String> groupLogConsole(Runnable action)
+	{
+		final List<String> group = LOG_GROUP.get();
+		final List<String> logs = new ArrayList<>();
+		LOG_GROUP.set(logs);
+		try
+		{
+			action.run();
+		}
+		finally
+		{
+			if (group != null)
+			{
+				LOG_GROUP.set(group);
+			}
+			else
+			{
+				LOG_GROUP.remove();
+			}
+		}
+		return logs;
+	}
+	
 	public void setEditorText(String text)
 	{
 		_lineNumberingTextArea.cleanUp();
@@ -523,7 +594,7 @@ public class L2ClientDat extends Application
 		}
 		lineBar.valueProperty().bindBidirectional(mainBar.valueProperty());
 	}
-
+	
 	private void scheduleValidation(String text)
 	{
 		if (_validationDebounce == null)
@@ -19,6 +19,7 @@ package org.l2jmobius.actions;
 import javafx.application.Platform;
 import javafx.concurrent.Task;
 import org.l2jmobius.L2ClientDat;
+import org.l2jmobius.xml.DescriptorParser;
 
 public abstract class ActionTask extends Task<Void>
 {
@@ -45,7 +46,14 @@ public abstract class ActionTask extends Task<Void>
 	protected Void call()
 	{
 		updateProgress(0, 100);
-		action();
+		try
+		{
+			action();
+		}
+		finally
+		{
+			DescriptorParser.getInstance().reportEnumMisses();
+		}
 		if (!isCancelled())
 		{
 			updateProgress(100, 100);
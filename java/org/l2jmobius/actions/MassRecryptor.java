@@ -17,18 +17,23 @@
 package org.l2jmobius.actions;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.l2jmobius.L2ClientDat;
 import org.l2jmobius.clientcryptor.DatFile;
+import org.l2jmobius.clientcryptor.DatFileInfo;
 import org.l2jmobius.clientcryptor.crypt.DatCrypter;
 import org.l2jmobius.clientcryptor.crypt.RSADatCrypter;
+import org.l2jmobius.config.ConfigDebug;
 import org.l2jmobius.config.ConfigWindow;
 import org.l2jmobius.xml.CryptVersionParser;
 
@@ -106,58 +111,88 @@ public class MassRecryptor extends ActionTask
 		final long startTime = System.currentTimeMillis();
 		L2ClientDat.addLogConsole("---------------------------------------", true);
 		
-		for (File file : files)
+		// Every file gets its own crypter sessions, so files are recrypted in parallel and the progress and the lines of each file are added here as they complete.
+		final int threads = ConfigDebug.PARALLEL_CRYPT ? Math.max(1, Math.min(files.length, Runtime.getRuntime().availableProcessors())) : 1;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
 		{
-			if (isCancelled())
-			{
-				return;
-			}
-			
-			READ:
+			final CompletionService<List<String>> completionService = new ExecutorCompletionService<>(executor);
+			for (File file : files)
 			{
-				try (FileInputStream fis = new FileInputStream(file))
+				completionService.submit(() -> L2ClientDat.groupLogConsole(() ->
 				{
-					if (fis.available() < 28)
+					if (!isCancelled())
 					{
-						L2ClientDat.addLogConsole("The file " + file.getName() + " is too small.", true);
-						break READ;
+						recrypt(file, decryptors, encrypter, backupDir);
 					}
-					
-					final byte[] head = new byte[28];
-					fis.read(head);
-					fis.close();
-					
-					final String header = new String(head, StandardCharsets.UTF_16LE);
-					if (!header.matches("Lineage2Ver41[1-4]"))
-					{
-						L2ClientDat.addLogConsole("File " + file.getName() + " not encrypted. Skip decrypt.", true);
-						break READ;
-					}
-					
-					final ByteBuffer buffer = OpenDat.decrypt(file, decryptors, false);
-					if (buffer == null)
-					{
-						break READ;
-					}
-					
-					Files.copy(file.toPath(), new File(backupDir, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
-					DatFile.encrypt(buffer.array(), file.getPath(), encrypter);
-					L2ClientDat.addLogConsole(file.getName() + " change crypt by " + encrypter.getName() + " encryptor success.", true);
-				}
-				catch (Exception e)
-				{
-					L2ClientDat.addLogConsole(file.getName() + " change crypt by " + encrypter.getName() + " encryptor failed!", true);
-				}
-				finally
+				}));
+			}
+			
+			for (int i = 0; i < files.length; ++i)
+			{
+				final List<String> logs = completionService.take().get();
+				if (isCancelled())
 				{
-					progress = addProgress(progress, progressWeight, 97.0);
+					return;
 				}
 				
+				L2ClientDat.addLogConsole(logs);
+				progress = addProgress(progress, progressWeight, 97.0);
 				L2ClientDat.addLogConsole("---------------------------------------", true);
 			}
 		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return;
+		}
+		catch (ExecutionException e)
+		{
+			throw new IllegalStateException(e.getCause());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
 		
 		final long diffTime = (System.currentTimeMillis() - startTime) / 1000L;
 		L2ClientDat.addLogConsole("Completed. Elapsed ".concat(String.valueOf(diffTime)).concat(" sec"), true);
 	}
+	
+	private void recrypt(File file, List<DatCrypter> decryptors, DatCrypter encrypter, File backupDir)
+	{
+		try
+		{
+			final ByteBuffer buffer;
+			try (DatFile dat = new DatFile(file.getPath()))
+			{
+				final DatFileInfo info = dat.getInfo();
+				if (info.getHeader() == null)
+				{
+					L2ClientDat.addLogConsole("The file " + file.getName() + " is too small.", true);
+					return;
+				}
+				
+				if ((info.getCode() < 411) || (info.getCode() > 414))
+				{
+					L2ClientDat.addLogConsole("File " + file.getName() + " not encrypted. Skip decrypt.", true);
+					return;
+				}
+				
+				buffer = OpenDat.decrypt(dat, decryptors, false);
+				if (buffer == null)
+				{
+					return;
+				}
+			}
+			
+			Files.copy(file.toPath(), new File(backupDir, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			DatFile.encrypt(buffer.array(), file.getPath(), encrypter);
+			L2ClientDat.addLogConsole(file.getName() + " change crypt by " + encrypter.getName() + " encryptor success.", true);
+		}
+		catch (Exception e)
+		{
+			L2ClientDat.addLogConsole(file.getName() + " change crypt by " + encrypter.getName() + " encryptor failed!", true);
+		}
+	}
 }
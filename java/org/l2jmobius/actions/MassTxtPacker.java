@@ -17,7 +17,11 @@
 package org.l2jmobius.actions;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.logging.Level;
@@ -164,9 +168,7 @@ public class MassTxtPacker extends ActionTask
 				final Descriptor desc = DescriptorParser.getInstance().findDescriptorForFile(chronicle, file.getName().replace(".txt", ".dat"));
 				if (desc != null)
 				{
-					final byte[] array = Files.readAllBytes(file.toPath());
-					final String joined = new String(array, 0, array.length, StandardCharsets.UTF_8);
-					buff = DescriptorWriter.parseData(actionTask, actionTask.getWeightValue(80.0, weight), outFile, encrypter, desc, joined.replace("\n", "\r\n"), true);
+					buff = DescriptorWriter.parseText(actionTask, actionTask.getWeightValue(80.0, weight), outFile, encrypter, desc, readText(file), true);
 					if (actionTask.isCancelled())
 					{
 						shouldContinue = false;
@@ -196,7 +198,7 @@ public class MassTxtPacker extends ActionTask
 				{
 					if (ConfigDebug.ENCRYPT)
 					{
-						DatFile.encrypt(buff, outFile.getPath(), encrypter);
+						DatFile.encrypt(actionTask, actionTask.getWeightValue(20.0, weight), buff, outFile.getPath(), encrypter);
 					}
 					else
 					{
@@ -224,4 +226,28 @@ public class MassTxtPacker extends ActionTask
 			LOGGER.log(Level.WARNING, e2.getMessage(), e2);
 		}
 	}
+	
+	/**
+	 * @return the UTF-8 text of the file, decoded straight into a builder sized from the file
+	 */
+	private static CharSequence readText(File file) throws IOException
+	{
+		final long size = file.length();
+		if (size > Integer.MAX_VALUE)
+		{
+			throw new IOException("File " + file.getName() + " is too big.");
+		}
+		
+		final StringBuilder sb = new StringBuilder((int) size);
+		try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))
+		{
+			final char[] chunk = new char[8192];
+			int count;
+			while ((count = reader.read(chunk)) > 0)
+			{
+				sb.append(chunk, 0, count);
+			}
+		}
+		return sb;
+	}
 }
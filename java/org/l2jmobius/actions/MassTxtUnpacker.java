@@ -17,21 +17,42 @@
 package org.l2jmobius.actions;
 
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.l2jmobius.L2ClientDat;
+import org.l2jmobius.clientcryptor.DatFile;
+import org.l2jmobius.clientcryptor.DatFileInfo;
 import org.l2jmobius.clientcryptor.crypt.DatCrypter;
+import org.l2jmobius.config.ConfigDebug;
 import org.l2jmobius.data.GameDataName;
 
 public class MassTxtUnpacker extends ActionTask
 {
 	private static final Logger LOGGER = Logger.getLogger(MassTxtUnpacker.class.getName());
 	
+	private static final String PART_EXTENSION = ".part";
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+	
 	private final String _chronicle;
 	private final String _path;
 	
@@ -86,69 +107,122 @@ public class MassTxtUnpacker extends ActionTask
 		double progress = getCurrentProgress();
 		final double progressWeight = 100.0 / files.length;
 		
-		for (File file : files)
+		// The names are cleared once and then only read, so files are unpacked in parallel and the progress and the lines of each file are added here as they complete.
+		// A file only reports its own progress while it is the only one unpacked.
+		final int threads = ConfigDebug.PARALLEL_CRYPT ? Math.max(1, Math.min(files.length, Runtime.getRuntime().availableProcessors())) : 1;
+		final double fileWeight = (threads == 1) ? progressWeight : 0.0;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
 		{
-			if (isCancelled())
+			final CompletionService<List<String>> completionService = new ExecutorCompletionService<>(executor);
+			for (File file : files)
 			{
-				L2ClientDat.addLogConsole("Cancelled.", true);
-				return;
+				completionService.submit(() -> L2ClientDat.groupLogConsole(() ->
+				{
+					if (!isCancelled())
+					{
+						unpack(file, unpackDirPath, fileWeight);
+					}
+				}));
 			}
 			
-			try (FileInputStream fis = new FileInputStream(file))
+			for (int i = 0; i < files.length; ++i)
 			{
-				L2ClientDat.addLogConsole("Start unpacking [" + file.getName() + "]...", true);
-				if (fis.available() < 28)
+				final List<String> logs = completionService.take().get();
+				if (isCancelled())
 				{
-					L2ClientDat.addLogConsole("[" + file.getName() + "] is too small.", true);
+					L2ClientDat.addLogConsole("Cancelled.", true);
+					return;
 				}
-				else
+				
+				L2ClientDat.addLogConsole(logs);
+				progress = addProgress(progress, progressWeight, 100.0);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return;
+		}
+		catch (ExecutionException e)
+		{
+			throw new IllegalStateException(e.getCause());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		
+		final long diffTime = (System.currentTimeMillis() - startTime) / 1000L;
+		L2ClientDat.addLogConsole("Completed. Elapsed ".concat(String.valueOf(diffTime)).concat(" sec"), true);
+	}
+	
+	private void unpack(File file, String unpackDirPath, double weight)
+	{
+		try (DatFile dat = new DatFile(file.getPath()))
+		{
+			L2ClientDat.addLogConsole("Start unpacking [" + file.getName() + "]...", true);
+			final DatFileInfo info = dat.getInfo();
+			if (info.getHeader() == null)
+			{
+				L2ClientDat.addLogConsole("[" + file.getName() + "] is too small.", true);
+			}
+			else if ((info.getCode() < 411) || (info.getCode() > 414))
+			{
+				L2ClientDat.addLogConsole("[" + file.getName() + "] not encrypted. Skip decrypt.", true);
+			}
+			else
+			{
+				// The text is encoded while it is decoded into a part file, which replaces the unpacked file once complete.
+				final Path part = Paths.get(unpackDirPath, file.getName() + PART_EXTENSION);
+				final Charset charset = file.getName().endsWith(".htm") ? StandardCharsets.UTF_16 : StandardCharsets.UTF_8;
+				boolean parsed = false;
+				try (Writer writer = newWriter(part, charset))
 				{
-					final byte[] head = new byte[28];
-					fis.read(head);
-					fis.close();
-					final String header = new String(head, StandardCharsets.UTF_16LE);
-					if (!header.matches("Lineage2Ver41[1-4]"))
+					parsed = OpenDat.start(this, weight, _chronicle, dat, writer, true);
+				}
+				finally
+				{
+					if (!parsed)
 					{
-						L2ClientDat.addLogConsole("[" + file.getName() + "] not encrypted. Skip decrypt.", true);
+						Files.deleteIfExists(part);
 					}
-					else
+				}
+				
+				if (!parsed)
+				{
+					L2ClientDat.addLogConsole("Cannot parse [" + file.getName() + "]", true);
+				}
+				else if (Files.size(part) == 0)
+				{
+					Files.delete(part);
+				}
+				else
+				{
+					final DatCrypter crypter = OpenDat.getLastDatCrypter(file);
+					String name = file.getName();
+					if (crypter.isUseStructure() && file.getName().endsWith(".dat"))
 					{
-						final String text = OpenDat.start(this, progressWeight, _chronicle, file, true);
-						if (text == null)
-						{
-							L2ClientDat.addLogConsole("Cannot parse [" + file.getName() + "]", true);
-						}
-						else if (!text.isEmpty())
-						{
-							final DatCrypter crypter = OpenDat.getLastDatCrypter(file);
-							String charset = "UTF-8";
-							String name = file.getName();
-							if (crypter.isUseStructure() && file.getName().endsWith(".dat"))
-							{
-								name = name.replace(".dat", ".txt");
-							}
-							else if (name.endsWith(".htm"))
-							{
-								charset = "UTF-16";
-							}
-							
-							Files.write(Paths.get(unpackDirPath, name), text.getBytes(charset));
-							L2ClientDat.addLogConsole("Success unpacked [" + file.getName() + "]", true);
-						}
+						name = name.replace(".dat", ".txt");
 					}
+					
+					Files.move(part, Paths.get(unpackDirPath, name), StandardCopyOption.REPLACE_EXISTING);
+					L2ClientDat.addLogConsole("Success unpacked [" + file.getName() + "]", true);
 				}
 			}
-			catch (Exception e3)
-			{
-				LOGGER.log(Level.WARNING, ("[" + file.getName() + "] decrypt failed."));
-			}
-			finally
-			{
-				progress = addProgress(progress, progressWeight, 100.0);
-			}
 		}
-		
-		final long diffTime = (System.currentTimeMillis() - startTime) / 1000L;
-		L2ClientDat.addLogConsole("Completed. Elapsed ".concat(String.valueOf(diffTime)).concat(" sec"), true);
+		catch (Exception e3)
+		{
+			LOGGER.log(Level.WARNING, ("[" + file.getName() + "] decrypt failed."));
+		}
+	}
+	
+	/**
+	 * @return a writer encoding into a file through a fixed size buffer, unencodable chars are replaced as {@link String#getBytes(Charset)} does
+	 */
+	private static Writer newWriter(Path path, Charset charset) throws IOException
+	{
+		final CharsetEncoder encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		return Channels.newWriter(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), encoder, WRITE_BUFFER_SIZE);
 	}
 }
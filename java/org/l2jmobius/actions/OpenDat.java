@@ -17,20 +17,24 @@
 package org.l2jmobius.actions;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.l2jmobius.L2ClientDat;
 import org.l2jmobius.clientcryptor.DatFile;
+import org.l2jmobius.clientcryptor.DatFileInfo;
 import org.l2jmobius.clientcryptor.crypt.DatCrypter;
+import org.l2jmobius.config.ConfigDebug;
 import org.l2jmobius.data.GameDataName;
 import org.l2jmobius.util.DebugUtil;
 import org.l2jmobius.xml.CryptVersionParser;
@@ -42,7 +46,8 @@ public class OpenDat extends ActionTask
 {
 	private static final Logger LOGGER = Logger.getLogger(OpenDat.class.getName());
 	
-	private static final Map<String, DatCrypter> LAST_DAT_CRYPTERS = new HashMap<>();
+	private static final Map<String, DatCrypter> LAST_DAT_CRYPTERS = new ConcurrentHashMap<>();
+	private static final Map<String, DatCrypter> LAST_DIRECTORY_CRYPTERS = new ConcurrentHashMap<>();
 	
 	protected final String _structureChronicle;
 	protected final File _file;
@@ -80,6 +85,22 @@ public class OpenDat extends ActionTask
 	}
 	
 	public static ByteBuffer decrypt(File file, Collection<DatCrypter> decryptors, boolean mass) throws Exception
+	{
+		try (DatFile dat = new DatFile(file.getPath()))
+		{
+			return decrypt(dat, decryptors, mass);
+		}
+	}
+	
+	/**
+	 * Decrypts an already opened file, its header is only parsed once for all the tried crypters.
+	 * @param file the file to decrypt
+	 * @param decryptors the crypters to try, or {@code null} for all the decrypt keys of the header code
+	 * @param mass {@code true} to not log the failures
+	 * @return the decrypted data, or {@code null} if the file cannot be decrypted
+	 * @throws Exception
+	 */
+	public static ByteBuffer decrypt(DatFile file, Collection<DatCrypter> decryptors, boolean mass) throws Exception
 	{
 		final String fileName = file.getName();
 		if (!file.exists())
@@ -100,23 +121,32 @@ public class OpenDat extends ActionTask
 			return null;
 		}
 		
-		final FileInputStream fis = new FileInputStream(file);
-		if (fis.available() < 28)
+		final DatFileInfo info;
+		try
+		{
+			info = file.getInfo();
+		}
+		catch (IOException exc)
+		{
+			if (!mass)
+			{
+				L2ClientDat.addLogConsole("Error reading" + fileName + "  file.", true);
+			}
+			return null;
+		}
+		
+		final String header = info.getHeader();
+		if (header == null)
 		{
 			if (!mass)
 			{
 				L2ClientDat.addLogConsole("The file " + fileName + " is too small.", true);
 			}
-			fis.close();
 			return null;
 		}
 		
 		boolean crypt = true;
-		final byte[] head = new byte[28];
-		fis.read(head);
-		fis.close();
-		final String header = new String(head, StandardCharsets.UTF_16LE);
-		if (!header.matches("Lineage2Ver(\\d{3})"))
+		if (!info.isEncrypted())
 		{
 			if (!mass)
 			{
@@ -127,33 +157,46 @@ public class OpenDat extends ActionTask
 		ByteBuffer buffer = null;
 		if (crypt)
 		{
-			final int cryptCode = Integer.parseInt(header.replaceFirst("Lineage2Ver(\\d{3})", "$1"));
+			final int cryptCode = info.getCode();
 			if (!mass)
 			{
 				L2ClientDat.addLogConsole("File " + fileName + " encrypted. " + header + " decrypt ...", true);
 			}
 			
+			// A damaged file is rejected before any decryption work.
+			if (ConfigDebug.DAT_CHECK_CRC && !file.checkCrc32())
+			{
+				if (!mass)
+				{
+					L2ClientDat.addLogConsole("CRC32 mismatch in " + fileName + " file.", true);
+				}
+				LOGGER.log(Level.WARNING, "CRC32 mismatch in " + fileName + " file.");
+				return null;
+			}
+			
 			DatCrypter crypter = null;
-			for (DatCrypter c : decryptors)
+			for (DatCrypter c : getCandidates(file, cryptCode, decryptors))
 			{
-				if (c.getCode() == cryptCode)
+				try
 				{
-					try
+					// The first block tells cheaply if the key is wrong, before a full pass over the file.
+					if (!file.probe(c))
 					{
-						final DatFile dat = new DatFile(file.getPath());
-						dat.decrypt(c);
-						buffer = dat.getBuff();
-						if (buffer != null)
-						{
-							crypter = c;
-							break;
-						}
 						continue;
 					}
-					catch (Exception ex)
+					
+					file.decrypt(c);
+					buffer = file.getBuff();
+					if (buffer != null)
 					{
+						crypter = c;
+						break;
 					}
 				}
+				catch (Exception ex)
+				{
+					LOGGER.log(Level.WARNING, "Cannot decrypt " + fileName + " by " + c.getName() + " decrypter: " + ex.getMessage());
+				}
 			}
 			
 			if (crypter == null)
@@ -166,6 +209,7 @@ public class OpenDat extends ActionTask
 			}
 			
 			OpenDat.LAST_DAT_CRYPTERS.put(file.getAbsolutePath().toLowerCase(), crypter);
+			OpenDat.LAST_DIRECTORY_CRYPTERS.put(getDirectoryKey(file, cryptCode), crypter);
 			DebugUtil.save(buffer, file);
 			if (!mass)
 			{
@@ -174,33 +218,80 @@ public class OpenDat extends ActionTask
 		}
 		else
 		{
-			try (FileInputStream fIn = new FileInputStream(file))
-			{
-				final FileChannel fChan = fIn.getChannel();
-				final ByteBuffer mBuf = ByteBuffer.allocate((int) fChan.size());
-				fChan.read(mBuf);
-				buffer = mBuf;
-				fChan.close();
-			}
-			catch (IOException exc)
-			{
-				if (!mass)
-				{
-					L2ClientDat.addLogConsole("Error reading" + fileName + "  file.", true);
-				}
-			}
+			// The mapping is released with the file, the plain content is copied once.
+			final ByteBuffer data = file.getData();
+			buffer = ByteBuffer.allocate(data.remaining());
+			buffer.put(data);
 		}
 		return buffer;
 	}
 	
 	public static ByteBuffer decrypt(File file, boolean mass) throws Exception
 	{
-		return decrypt(file, CryptVersionParser.getInstance().getDecryptKeys().values(), mass);
+		return decrypt(file, null, mass);
+	}
+	
+	/**
+	 * @param file the file to decrypt
+	 * @param code the crypt code of the file header
+	 * @param decryptors the crypters to try, or {@code null} for all the decrypt keys of the code
+	 * @return the crypters of the code, starting with the last one that decrypted a file of the same directory
+	 */
+	private static List<DatCrypter> getCandidates(File file, int code, Collection<DatCrypter> decryptors)
+	{
+		final List<DatCrypter> candidates = new ArrayList<>();
+		final DatCrypter last = LAST_DIRECTORY_CRYPTERS.get(getDirectoryKey(file, code));
+		if ((last != null) && ((decryptors == null) || decryptors.contains(last)))
+		{
+			candidates.add(last);
+		}
+		
+		for (DatCrypter crypter : (decryptors != null) ? decryptors : CryptVersionParser.getInstance().getDecryptKeys(code))
+		{
+			if ((crypter.getCode() == code) && (crypter != last))
+			{
+				candidates.add(crypter);
+			}
+		}
+		return candidates;
+	}
+	
+	private static String getDirectoryKey(File file, int code)
+	{
+		return String.valueOf(file.getAbsoluteFile().getParent()).toLowerCase() + File.pathSeparator + code;
 	}
 	
 	public static String start(ActionTask actionTask, double weight, String structureChronicle, File file, boolean mass) throws Exception
 	{
-		final ByteBuffer buffer = decrypt(file, mass);
+		try (DatFile dat = new DatFile(file.getPath()))
+		{
+			return start(actionTask, weight, structureChronicle, dat, mass);
+		}
+	}
+	
+	public static String start(ActionTask actionTask, double weight, String structureChronicle, DatFile file, boolean mass) throws Exception
+	{
+		return unpack(actionTask, weight, structureChronicle, file, null, mass);
+	}
+	
+	/**
+	 * Unpacks a file into a writer, the text of a structured file is written while it is decoded.
+	 * @param out receives the text
+	 * @return {@code false} if the file cannot be parsed, the text written is then to be discarded
+	 * @throws Exception
+	 */
+	public static boolean start(ActionTask actionTask, double weight, String structureChronicle, DatFile file, Writer out, boolean mass) throws Exception
+	{
+		return unpack(actionTask, weight, structureChronicle, file, Objects.requireNonNull(out), mass) != null;
+	}
+	
+	/**
+	 * @param out receives the text, {@code null} to return it
+	 * @return the text, an empty string once written to the writer, or {@code null} if the file cannot be parsed
+	 */
+	private static String unpack(ActionTask actionTask, double weight, String structureChronicle, DatFile file, Writer out, boolean mass) throws Exception
+	{
+		final ByteBuffer buffer = decrypt(file, null, mass);
 		if (buffer == null)
 		{
 			return "";
@@ -261,7 +352,14 @@ public class OpenDat extends ActionTask
 				{
 					GameDataName.getInstance().clear();
 				}
-				text = DescriptorReader.getInstance().parseData(actionTask, actionTask.getWeightValue(94.0, weight), file, crypter, desc, buffer, mass);
+				if (out != null)
+				{
+					text = (DescriptorReader.getInstance().parseData(actionTask, actionTask.getWeightValue(94.0, weight), file, crypter, desc, buffer, out, mass) >= 0) ? "" : null;
+				}
+				else
+				{
+					text = DescriptorReader.getInstance().parseData(actionTask, actionTask.getWeightValue(94.0, weight), file, crypter, desc, buffer, mass);
+				}
 				System.gc();
 				
 				if (actionTask.isCancelled())
@@ -288,6 +386,11 @@ public class OpenDat extends ActionTask
 			L2ClientDat.addLogConsole("Completed.", true);
 		}
 		
+		if ((out != null) && (text != null) && !text.isEmpty())
+		{
+			out.write(text);
+			return "";
+		}
 		return text;
 	}
 }
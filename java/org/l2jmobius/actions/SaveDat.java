@@ -67,7 +67,7 @@ public class SaveDat extends ActionTask
 					}
 					else
 					{
-						buff = DescriptorWriter.parseData(this, 90.0, _file, crypter, desc, _l2clientdat.getTextPaneMain().getText().replace("\n", "\r\n"), false);
+						buff = DescriptorWriter.parseText(this, 90.0, _file, crypter, desc, _l2clientdat.getTextPaneMain().getText(), false);
 						if (isCancelled())
 						{
 							shouldContinue = false;
@@ -121,7 +121,7 @@ public class SaveDat extends ActionTask
 			{
 				if (ConfigDebug.ENCRYPT)
 				{
-					DatFile.encrypt(buff, _file.getPath(), crypter);
+					DatFile.encrypt(this, 5.0, buff, _file.getPath(), crypter);
 				}
 				else
 				{
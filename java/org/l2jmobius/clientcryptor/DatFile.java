@@ -16,21 +16,36 @@
  */
 package org.l2jmobius.clientcryptor;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
+import org.l2jmobius.actions.ActionTask;
 import org.l2jmobius.clientcryptor.crypt.DatCrypter;
+import org.l2jmobius.clientcryptor.crypt.DatCrypterSession;
 import org.l2jmobius.config.ConfigDebug;
 
-public class DatFile extends File
+public class DatFile extends File implements AutoCloseable
 {
+	private static final MethodHandle INVOKE_CLEANER = findInvokeCleaner();
+	
 	private ByteBuffer _buff;
-	private Footer _foot;
+	private MappedByteBuffer _mapped;
+	private ByteBuffer _data;
+	private DatFileInfo _info;
 	
 	public DatFile(String pathname)
 	{
@@ -39,42 +54,31 @@ public class DatFile extends File
 	
 	public static void encrypt(byte[] buff, String file, DatCrypter crypter) throws Exception
 	{
-		crypter.aquire();
-		final FileOutputStream os = new FileOutputStream(file, false);
-		final String header = "Lineage2Ver" + crypter.getCode();
-		os.write(header.getBytes(StandardCharsets.UTF_16LE));
-		crypter.update(buff);
-		final byte[] res = crypter.encryptResult().array();
-		os.write(res);
-		if (ConfigDebug.DAT_ADD_END_BYTES)
+		encrypt(null, 0.0, buff, file, crypter);
+	}
+	
+	public static void encrypt(ActionTask actionTask, double weight, byte[] buff, String file, DatCrypter crypter) throws Exception
+	{
+		try (DatCrypterSession session = crypter.newSession();
+			CheckedOutputStream os = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(file, false)), new CRC32()))
 		{
-			final byte[] endBytes =
+			final String header = "Lineage2Ver" + crypter.getCode();
+			os.write(header.getBytes(StandardCharsets.UTF_16LE));
+			session.update(buff);
+			session.writeEncryptResult(os, actionTask, weight);
+			if (ConfigDebug.DAT_ADD_END_BYTES && (crypter.getSkipSize() > 0))
 			{
-				0,
-				0,
-				0,
-				0,
-				0,
-				0,
-				0,
-				0,
-				0,
-				0,
-				0,
-				0,
-				0,
-				0,
-				0,
-				0,
-				0,
-				0,
-				0,
-				100
-			};
-			os.write(endBytes);
+				// The CRC32 covers the file up to the footer.
+				final int crc = (int) os.getChecksum().getValue();
+				final byte[] endBytes = new byte[DatFileInfo.FOOTER_SIZE];
+				endBytes[12] = (byte) crc;
+				endBytes[13] = (byte) (crc >>> 8);
+				endBytes[14] = (byte) (crc >>> 16);
+				endBytes[15] = (byte) (crc >>> 24);
+				endBytes[19] = 100;
+				os.write(endBytes);
+			}
 		}
-		os.close();
-		crypter.release();
 	}
 	
 	public ByteBuffer getBuff()
@@ -82,156 +86,148 @@ public class DatFile extends File
 		return _buff;
 	}
 	
-	public void decrypt(DatCrypter crypter) throws Exception
+	/**
+	 * Maps the file on first use and parses its header and footer.
+	 * @return the layout of the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public DatFileInfo getInfo() throws IOException
 	{
-		loadInfo();
-		try (FileInputStream fis = new FileInputStream(this))
-		{
-			crypter.aquire();
-			try
-			{
-				fis.skip(28L);
-				final byte[] buff = new byte[crypter.getChunkSize(fis.available())];
-				int len = fis.available() - crypter.getSkipSize();
-				while (len > 0)
-				{
-					len -= fis.read(buff);
-					if (!crypter.update(buff))
-					{
-						_buff = null;
-						return;
-					}
-				}
-				_buff = crypter.decryptResult();
-			}
-			finally
-			{
-				crypter.release();
-			}
-		}
-		catch (Exception e)
+		if (_info == null)
 		{
-			throw e;
+			_info = DatFileInfo.parse(getData());
 		}
+		return _info;
 	}
 	
-	@SuppressWarnings("unused")
-	private boolean checkCrc32(DatCrypter crypter)
+	/**
+	 * The file is mapped once and shared by all the reads until {@link #close()}.<br>
+	 * Pool threads only use absolute reads, so the same mapping can be read by several threads.
+	 * @return a read only view of the whole file
+	 * @throws IOException if the file cannot be read
+	 */
+	public ByteBuffer getData() throws IOException
 	{
-		if (_foot == null)
+		if (_data == null)
 		{
-			try
+			if (!exists() || !canRead())
 			{
-				loadInfo();
+				throw new IOException("Can not read the dat file");
 			}
-			catch (IOException e)
+			
+			try (FileChannel channel = FileChannel.open(toPath(), StandardOpenOption.READ))
 			{
-				return false;
+				_mapped = channel.map(MapMode.READ_ONLY, 0, channel.size());
+				_data = _mapped.asReadOnlyBuffer();
 			}
 		}
-		try (FileInputStream fis = new FileInputStream(this))
+		return _data.duplicate();
+	}
+	
+	/**
+	 * @param crypter the crypter to check
+	 * @return {@code false} if the start of the body shows that the file cannot be decrypted by the given crypter
+	 * @throws IOException if the file cannot be read
+	 */
+	public boolean probe(DatCrypter crypter) throws IOException
+	{
+		final ByteBuffer body = getBody(crypter);
+		return (body == null) || crypter.probe(body);
+	}
+	
+	public void decrypt(DatCrypter crypter) throws Exception
+	{
+		final ByteBuffer body = getBody(crypter);
+		try (DatCrypterSession session = crypter.newSession())
 		{
-			final CRC32 chksum = new CRC32();
-			byte[] buff = new byte[1024];
-			int len = fis.available() - 20;
-			while (len > 0)
+			if ((body != null) && !session.update(body))
 			{
-				if (len < 1024)
-				{
-					buff = new byte[len];
-				}
-				len -= fis.read(buff);
-				chksum.update(buff);
+				_buff = null;
+				return;
 			}
-			return chksum.getValue() == _foot.crc32;
-		}
-		catch (Exception e2)
-		{
-			e2.printStackTrace();
-			return false;
+			_buff = session.decryptResult();
 		}
 	}
 	
-	private void loadInfo() throws IOException
+	/**
+	 * @param crypter the crypter giving the size of the footer
+	 * @return the encrypted body, or {@code null} if it is empty
+	 * @throws IOException if the file cannot be read or is not encrypted
+	 */
+	private ByteBuffer getBody(DatCrypter crypter) throws IOException
 	{
-		if (!exists() || !canRead())
+		final DatFileInfo info = getInfo();
+		if (!info.isEncrypted())
 		{
-			throw new IOException("Can not read the dat file");
-		}
-		
-		final FileInputStream fis = new FileInputStream(this);
-		if (fis.available() < 28)
-		{
-			fis.close();
-			throw new IOException("Can not read the dat file : too small");
-		}
-		
-		final byte[] head = new byte[28];
-		fis.read(head);
-		
-		final String header = new String(head, StandardCharsets.UTF_16LE);
-		if (!header.startsWith("Lineage2Ver"))
-		{
-			fis.close();
 			throw new IOException("Can not read the dat file : wrong header");
 		}
 		
-		if (header.endsWith("111") || header.endsWith("120") || header.endsWith("211") || header.endsWith("212"))
+		final int length = (int) (info.getFileSize() - info.getBodyOffset() - crypter.getSkipSize());
+		return (length > 0) ? getData().slice(info.getBodyOffset(), length) : null;
+	}
+	
+	/**
+	 * Checks the CRC32 of the footer against the mapped file, before any decryption work.<br>
+	 * A zero CRC is written by older tools and is treated as missing.
+	 * @return {@code false} only if the file has a CRC32 that does not match its content
+	 * @throws IOException if the file cannot be read
+	 */
+	public boolean checkCrc32() throws IOException
+	{
+		final DatFileInfo info = getInfo();
+		if (!info.hasFooter() || (info.getCrc32() == 0))
 		{
-			fis.close();
-			return;
+			return true;
 		}
 		
-		if (header.endsWith("311"))
+		final CRC32 chksum = new CRC32();
+		chksum.update(getData().slice(0, (int) info.getFileSize() - DatFileInfo.FOOTER_SIZE));
+		return chksum.getValue() == info.getCrc32();
+	}
+	
+	/**
+	 * Unmaps the file, so it can be written again right after even on Windows. The decrypted buffer stays available.
+	 */
+	@Override
+	public void close()
+	{
+		if (_mapped == null)
 		{
-			fis.close();
 			return;
 		}
 		
-		if (!header.endsWith("411") && !header.endsWith("412") && !header.endsWith("413") && !header.endsWith("414"))
+		final MappedByteBuffer mapped = _mapped;
+		_mapped = null;
+		_data = null;
+		if (INVOKE_CLEANER != null)
 		{
-			fis.close();
-			throw new IOException("Can not read the dat file : unknown header : '" + header + "'");
-		}
-		
-		if (fis.available() < 20)
-		{
-			fis.close();
-			throw new IOException("Can not read the dat file : too small");
+			try
+			{
+				INVOKE_CLEANER.invokeExact((ByteBuffer) mapped);
+			}
+			catch (Throwable e)
+			{
+				// The mapping is released by the garbage collector.
+			}
 		}
-		
-		fis.skip(fis.available() - 20);
-		final byte[] foot = new byte[20];
-		fis.read(foot);
-		int min = foot[4] & 0xFF;
-		min += ((foot[5] << 8) & 0xFF00);
-		min += ((foot[6] << 16) & 0xFF0000);
-		min += ((foot[7] << 24) & 0xFF000000);
-		int maj = foot[8] & 0xFF;
-		maj += ((foot[9] << 8) & 0xFF00);
-		maj += ((foot[10] << 16) & 0xFF0000);
-		maj += ((foot[11] << 24) & 0xFF000000);
-		long crc = foot[12] & 0xFFL;
-		crc += ((foot[13] << 8) & 0xFF00L);
-		crc += ((foot[14] << 16) & 0xFF0000L);
-		crc += ((foot[15] << 24) & 0xFF000000L);
-		_foot = new Footer(crc, min, maj);
-		fis.close();
 	}
 	
-	private static class Footer
+	/**
+	 * A mapped buffer is only unmapped by the garbage collector, unless its cleaner is invoked.
+	 * @return a handle of {@code Unsafe.invokeCleaner(ByteBuffer)}, or {@code null} if not available
+	 */
+	private static MethodHandle findInvokeCleaner()
 	{
-		long crc32;
-		@SuppressWarnings("unused")
-		int majorVersion;
-		@SuppressWarnings("unused")
-		int minorVersion;
-		
-		Footer(long crc, int maj, int min)
+		try
+		{
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			final Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			return MethodHandles.lookup().findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class)).bindTo(field.get(null));
+		}
+		catch (Exception e)
 		{
-			crc32 = crc;
-			majorVersion = maj;
-			minorVersion = min;
+			return null;
 		}
 	}
 }
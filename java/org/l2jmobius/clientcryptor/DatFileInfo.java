@@ -0,0 +1,157 @@
+/*
+ * This file is part of the L2ClientDat project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.l2jmobius.clientcryptor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The layout of a dat file, parsed once from its mapped content.<br>
+ * A dat file starts with a 28 bytes "Lineage2VerXXX" header, RSA files (41x) also end with a 20 bytes footer holding the versions and the CRC32 of the file.
+ */
+public final class DatFileInfo
+{
+	public static final int HEADER_SIZE = 28;
+	public static final int FOOTER_SIZE = 20;
+	
+	private static final String HEADER_PREFIX = "Lineage2Ver";
+	
+	private final String _header;
+	private final int _code;
+	private final long _fileSize;
+	private final boolean _footer;
+	private final long _crc32;
+	private final int _minorVersion;
+	private final int _majorVersion;
+	
+	private DatFileInfo(String header, int code, long fileSize, boolean footer, long crc32, int minorVersion, int majorVersion)
+	{
+		_header = header;
+		_code = code;
+		_fileSize = fileSize;
+		_footer = footer;
+		_crc32 = crc32;
+		_minorVersion = minorVersion;
+		_majorVersion = majorVersion;
+	}
+	
+	/**
+	 * @param data the whole file content, its position and limit are not changed
+	 * @return the layout of the file
+	 */
+	public static DatFileInfo parse(ByteBuffer data)
+	{
+		final int fileSize = data.limit();
+		if (fileSize < HEADER_SIZE)
+		{
+			return new DatFileInfo(null, -1, fileSize, false, 0, 0, 0);
+		}
+		
+		final byte[] head = new byte[HEADER_SIZE];
+		data.get(0, head);
+		final String header = new String(head, StandardCharsets.UTF_16LE);
+		final int code = parseCode(header);
+		if ((code < 411) || (code > 414) || (fileSize < (HEADER_SIZE + FOOTER_SIZE)))
+		{
+			return new DatFileInfo(header, code, fileSize, false, 0, 0, 0);
+		}
+		
+		final ByteBuffer foot = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		final int footer = fileSize - FOOTER_SIZE;
+		return new DatFileInfo(header, code, fileSize, true, foot.getInt(footer + 12) & 0xFFFFFFFFL, foot.getInt(footer + 4), foot.getInt(footer + 8));
+	}
+	
+	private static int parseCode(String header)
+	{
+		if (!header.startsWith(HEADER_PREFIX))
+		{
+			return -1;
+		}
+		
+		int code = 0;
+		for (int i = HEADER_PREFIX.length(); i < header.length(); ++i)
+		{
+			final char c = header.charAt(i);
+			if ((c < '0') || (c > '9'))
+			{
+				return -1;
+			}
+			code = (code * 10) + (c - '0');
+		}
+		return code;
+	}
+	
+	/**
+	 * @return the header text, or {@code null} if the file is smaller than a header
+	 */
+	public String getHeader()
+	{
+		return _header;
+	}
+	
+	/**
+	 * @return the crypt code of the header, or -1 if the file is not encrypted
+	 */
+	public int getCode()
+	{
+		return _code;
+	}
+	
+	public boolean isEncrypted()
+	{
+		return _code >= 0;
+	}
+	
+	public long getFileSize()
+	{
+		return _fileSize;
+	}
+	
+	public int getBodyOffset()
+	{
+		return HEADER_SIZE;
+	}
+	
+	/**
+	 * @return the size of the encrypted data, between the header and the footer
+	 */
+	public long getBodySize()
+	{
+		return Math.max(0, _fileSize - HEADER_SIZE - (_footer ? FOOTER_SIZE : 0));
+	}
+	
+	public boolean hasFooter()
+	{
+		return _footer;
+	}
+	
+	public long getCrc32()
+	{
+		return _crc32;
+	}
+	
+	public int getMinorVersion()
+	{
+		return _minorVersion;
+	}
+	
+	public int getMajorVersion()
+	{
+		return _majorVersion;
+	}
+}
@@ -17,37 +17,30 @@
 package org.l2jmobius.clientcryptor.crypt;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 public class BlowFishDatCrypter extends DatCrypter
 {
-	private boolean _encrypt;
+	private static final int BLOCK_SIZE = 8;
+	private static final byte[] EMPTY = new byte[0];
+	
+	private final boolean _encrypt;
 	private final BlowfishEngine _blowfish;
 	
 	public BlowFishDatCrypter(String name, int code, String key, boolean deCrypt)
 	{
 		super(name, code);
-		_encrypt = false;
 		_blowfish = new BlowfishEngine();
 		_encrypt = !deCrypt;
-		_blowfish.init(_encrypt, key.getBytes());
-	}
-	
-	@Override
-	public ByteBuffer decryptResult()
-	{
-		return null;
-	}
-	
-	@Override
-	public ByteBuffer encryptResult()
-	{
-		return null;
+		// The keys of cryptVersion.xml end with a written "\0", the client uses the trailing NUL as part of the key.
+		_blowfish.init(_encrypt, key.replace("\\0", "\0").getBytes(StandardCharsets.ISO_8859_1));
 	}
 	
 	@Override
-	public boolean update(byte[] b)
+	public DatCrypterSession newSession()
 	{
-		return true;
+		return new Session();
 	}
 	
 	@Override
@@ -67,4 +60,81 @@ public class BlowFishDatCrypter extends DatCrypter
 	{
 		return _encrypt;
 	}
+	
+	/**
+	 * The engine is read only once initialized, so the sessions of a key share it.
+	 */
+	private class Session extends DatCrypterSession
+	{
+		private byte[] _result = EMPTY;
+		
+		Session()
+		{
+			super(BlowFishDatCrypter.this);
+		}
+		
+		@Override
+		public ByteBuffer decryptResult()
+		{
+			return ByteBuffer.wrap(_result);
+		}
+		
+		@Override
+		public ByteBuffer encryptResult()
+		{
+			return ByteBuffer.wrap(_result);
+		}
+		
+		@Override
+		public boolean update(byte[] b) throws Exception
+		{
+			return process(Arrays.copyOf(b, getDataSize(b.length)));
+		}
+		
+		/**
+		 * The body is copied once out of the mapped file, then processed in place.
+		 */
+		@Override
+		public boolean update(ByteBuffer body) throws Exception
+		{
+			final byte[] data = new byte[getDataSize(body.remaining())];
+			body.get(body.position(), data, 0, body.remaining());
+			return process(data);
+		}
+		
+		/**
+		 * Encrypted data is zero padded to whole blocks, a trailing partial block of an encrypted file is left as is.
+		 * @param length the count of bytes to process
+		 * @return the size of the processed data
+		 */
+		private int getDataSize(int length)
+		{
+			return _encrypt ? (((length + BLOCK_SIZE) - 1) / BLOCK_SIZE) * BLOCK_SIZE : length;
+		}
+		
+		private boolean process(byte[] data) throws Exception
+		{
+			final int blockCount = data.length / BLOCK_SIZE;
+			final int batchBlocks = ParallelCrypt.getBatchBlocks(BLOCK_SIZE);
+			if (ParallelCrypt.isParallel(blockCount, batchBlocks))
+			{
+				// ECB blocks do not depend on each other, so batches are processed in place.
+				ParallelCrypt.process(blockCount, batchBlocks, (fromBlock, toBlock) ->
+				{
+					_blowfish.processBlocks(data, fromBlock * BLOCK_SIZE, data, fromBlock * BLOCK_SIZE, toBlock - fromBlock);
+					return EMPTY;
+				}, (result, processedBlocks) ->
+				{
+					// Already written in place.
+				});
+			}
+			else
+			{
+				_blowfish.processBlocks(data, 0, data, 0, blockCount);
+			}
+			
+			_result = data;
+			return true;
+		}
+	}
 }
@@ -1132,6 +1132,50 @@ public class BlowfishEngine
 		return BLOCK_SIZE;
 	}
 	
+	/**
+	 * Processes consecutive 8 bytes blocks in one call, without any allocation.<br>
+	 * The input and the output can be the same array, so blocks can be processed in place.
+	 * @param in the input buffer
+	 * @param inOff the position of the first block in the input buffer
+	 * @param out the output buffer
+	 * @param outOff the position of the first block in the output buffer
+	 * @param blockCount the count of blocks to process
+	 * @return the count of processed bytes
+	 * @throws IllegalBlockSizeException
+	 * @throws ShortBufferException
+	 */
+	public final int processBlocks(byte[] in, int inOff, byte[] out, int outOff, int blockCount) throws IllegalBlockSizeException, ShortBufferException
+	{
+		if (workingKey == null)
+		{
+			throw new IllegalStateException("Blowfish not initialised");
+		}
+		final int length = blockCount * BLOCK_SIZE;
+		if ((inOff + length) > in.length)
+		{
+			throw new IllegalBlockSizeException("input buffer too short");
+		}
+		if ((outOff + length) > out.length)
+		{
+			throw new ShortBufferException("output buffer too short");
+		}
+		if (encrypting)
+		{
+			for (int i = 0; i < length; i += BLOCK_SIZE)
+			{
+				encryptBlock(in, inOff + i, out, outOff + i);
+			}
+		}
+		else
+		{
+			for (int i = 0; i < length; i += BLOCK_SIZE)
+			{
+				decryptBlock(in, inOff + i, out, outOff + i);
+			}
+		}
+		return length;
+	}
+	
 	private int F(int x)
 	{
 		return ((S0[x >>> 24] + S1[(x >>> 16) & 0xFF]) ^ S2[(x >>> 8) & 0xFF]) + S3[x & 0xFF];
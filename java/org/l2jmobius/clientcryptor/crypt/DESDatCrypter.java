@@ -27,8 +27,7 @@ import javax.crypto.spec.DESKeySpec;
 public class DESDatCrypter extends DatCrypter
 {
 	private final boolean _encrypt;
-	private ByteArrayOutputStream _result;
-	private Cipher _cipher;
+	private final SecretKey _desKey;
 	
 	public DESDatCrypter(String name, int code, String sKey, boolean deCrypt) throws Exception
 	{
@@ -42,38 +41,22 @@ public class DESDatCrypter extends DatCrypter
 		}
 		final DESKeySpec dks = new DESKeySpec(keyXor);
 		final SecretKeyFactory skf = SecretKeyFactory.getInstance("DES");
-		final SecretKey desKey = skf.generateSecret(dks);
-		(_cipher = Cipher.getInstance("DES/ECB/NoPadding")).init(deCrypt ? 2 : 1, desKey);
+		_desKey = skf.generateSecret(dks);
+		// Check the key once, sessions create their own cipher.
+		newCipher();
 	}
 	
-	@Override
-	public ByteBuffer decryptResult()
+	private Cipher newCipher() throws Exception
 	{
-		return ByteBuffer.wrap(_result.toByteArray());
+		final Cipher cipher = Cipher.getInstance("DES/ECB/NoPadding");
+		cipher.init(_encrypt ? 1 : 2, _desKey);
+		return cipher;
 	}
 	
 	@Override
-	public ByteBuffer encryptResult()
+	public DatCrypterSession newSession()
 	{
-		return ByteBuffer.wrap(_result.toByteArray());
-	}
-	
-	@Override
-	public boolean update(byte[] bArray) throws Exception
-	{
-		if (!_encrypt)
-		{
-			_result = new ByteArrayOutputStream(bArray.length);
-			final byte[] bytes = new byte[8];
-			int size;
-			for (int position = 0; position < bArray.length; position += size)
-			{
-				size = Math.min(8, bArray.length - position);
-				System.arraycopy(bArray, position, bytes, 0, size);
-				_result.write((size == 8) ? _cipher.doFinal(bytes) : bytes, 0, size);
-			}
-		}
-		return true;
+		return new Session();
 	}
 	
 	@Override
@@ -93,4 +76,45 @@ public class DESDatCrypter extends DatCrypter
 	{
 		return _encrypt;
 	}
+	
+	private class Session extends DatCrypterSession
+	{
+		private ByteArrayOutputStream _result;
+		
+		Session()
+		{
+			super(DESDatCrypter.this);
+		}
+		
+		@Override
+		public ByteBuffer decryptResult()
+		{
+			return ByteBuffer.wrap(_result.toByteArray());
+		}
+		
+		@Override
+		public ByteBuffer encryptResult()
+		{
+			return ByteBuffer.wrap(_result.toByteArray());
+		}
+		
+		@Override
+		public boolean update(byte[] bArray) throws Exception
+		{
+			if (!_encrypt)
+			{
+				final Cipher cipher = newCipher();
+				_result = new ByteArrayOutputStream(bArray.length);
+				final byte[] bytes = new byte[8];
+				int size;
+				for (int position = 0; position < bArray.length; position += size)
+				{
+					size = Math.min(8, bArray.length - position);
+					System.arraycopy(bArray, position, bytes, 0, size);
+					_result.write((size == 8) ? cipher.doFinal(bytes) : bytes, 0, size);
+				}
+			}
+			return true;
+		}
+	}
 }
@@ -20,7 +20,6 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.locks.ReentrantLock;
 
 public abstract class DatCrypter
 {
@@ -28,7 +27,6 @@ public abstract class DatCrypter
 	private final int _code;
 	private boolean _useStructure;
 	private final List<String> _fileEndNames = new ArrayList<>();
-	private final ReentrantLock _lock = new ReentrantLock(true);
 	
 	public DatCrypter(String name, int code)
 	{
@@ -36,30 +34,24 @@ public abstract class DatCrypter
 		_code = code;
 	}
 	
-	public abstract boolean update(byte[] p0) throws Exception;
-	
-	public abstract ByteBuffer decryptResult();
-	
-	public abstract ByteBuffer encryptResult();
-	
-	public abstract int getChunkSize(int p0);
-	
-	public abstract int getSkipSize();
-	
-	public boolean checkAquired()
+	/**
+	 * @return a new session holding the state of one encryption or decryption with this key
+	 */
+	public abstract DatCrypterSession newSession();
+	
+	/**
+	 * Cheap check of the start of an encrypted body, done before a full decryption.
+	 * @param body the encrypted body, only read with absolute positions
+	 * @return {@code false} if the body surely cannot be decrypted by this crypter
+	 */
+	public boolean probe(ByteBuffer body)
 	{
-		return _lock.isHeldByCurrentThread();
+		return true;
 	}
 	
-	public void aquire()
-	{
-		_lock.lock();
-	}
+	public abstract int getChunkSize(int p0);
 	
-	public void release()
-	{
-		_lock.unlock();
-	}
+	public abstract int getSkipSize();
 	
 	public abstract boolean isEncrypt();
 	
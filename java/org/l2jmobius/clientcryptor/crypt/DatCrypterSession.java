@@ -0,0 +1,90 @@
+/*
+ * This file is part of the L2ClientDat project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.l2jmobius.clientcryptor.crypt;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.l2jmobius.actions.ActionTask;
+
+/**
+ * The mutable state of a single encryption or decryption done with a {@link DatCrypter}.<br>
+ * A session is used by one thread and closed once its result is taken, so several files can be processed with the same key at the same time.
+ */
+public abstract class DatCrypterSession implements AutoCloseable
+{
+	private final DatCrypter _crypter;
+	
+	protected DatCrypterSession(DatCrypter crypter)
+	{
+		_crypter = crypter;
+	}
+	
+	public DatCrypter getCrypter()
+	{
+		return _crypter;
+	}
+	
+	public abstract boolean update(byte[] p0) throws Exception;
+	
+	/**
+	 * Feeds a whole encrypted body to the session, chunk by chunk.
+	 * @param body the encrypted body, from its position to its limit, without the skipped footer
+	 * @return {@code false} if the body cannot be decrypted by this crypter
+	 * @throws Exception
+	 */
+	public boolean update(ByteBuffer body) throws Exception
+	{
+		final int chunkSize = _crypter.getChunkSize(body.remaining());
+		for (int position = body.position(), end = body.limit(); position < end; position += chunkSize)
+		{
+			final byte[] chunk = new byte[Math.min(chunkSize, end - position)];
+			body.get(position, chunk);
+			if (!update(chunk))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	public abstract ByteBuffer decryptResult();
+	
+	public abstract ByteBuffer encryptResult();
+	
+	/**
+	 * Writes the encrypted data to the given stream.
+	 * @param os the destination stream
+	 * @param actionTask the task notified about the progress, can be {@code null}
+	 * @param weight the progress weight of the encryption
+	 * @throws Exception
+	 */
+	public void writeEncryptResult(OutputStream os, ActionTask actionTask, double weight) throws Exception
+	{
+		final ByteBuffer result = encryptResult();
+		os.write(result.array(), result.arrayOffset() + result.position(), result.remaining());
+		if (actionTask != null)
+		{
+			actionTask.addProgress(actionTask.getCurrentProgress(), 100.0, weight);
+		}
+	}
+	
+	@Override
+	public void close()
+	{
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * This file is part of the L2ClientDat project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.l2jmobius.clientcryptor.crypt;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.l2jmobius.config.ConfigDebug;
+
+/**
+ * Runs independent cipher blocks in batches on the common fork-join pool.<br>
+ * Batches are handed back to the caller thread strictly in block order, so the sink can write or inflate them as a stream.
+ */
+public final class ParallelCrypt
+{
+	private static final int MAX_BATCHES_PER_THREAD = 4;
+	
+	@FunctionalInterface
+	public interface BatchTask
+	{
+		/**
+		 * @param fromBlock first block of the batch (inclusive)
+		 * @param toBlock last block of the batch (exclusive)
+		 * @return the processed bytes of the batch, or {@code null} if the data is not valid for this crypter
+		 * @throws Exception
+		 */
+		byte[] process(int fromBlock, int toBlock) throws Exception;
+	}
+	
+	@FunctionalInterface
+	public interface BatchSink
+	{
+		void accept(byte[] result, int processedBlocks) throws Exception;
+	}
+	
+	private ParallelCrypt()
+	{
+	}
+	
+	/**
+	 * @param blockCount the total count of blocks
+	 * @param batchBlocks the count of blocks in a batch
+	 * @return {@code true} if it is worth to split the given count of blocks between several threads
+	 */
+	public static boolean isParallel(int blockCount, int batchBlocks)
+	{
+		return ConfigDebug.PARALLEL_CRYPT && (ForkJoinPool.getCommonPoolParallelism() > 1) && (blockCount >= (batchBlocks * 2));
+	}
+	
+	/**
+	 * @param blockSize the size of a cipher block
+	 * @return the count of blocks processed by a batch, from the configured batch size in bytes
+	 */
+	public static int getBatchBlocks(int blockSize)
+	{
+		return Math.max(1, ConfigDebug.PARALLEL_CRYPT_BATCH_SIZE / blockSize);
+	}
+	
+	/**
+	 * Processes {@code blockCount} blocks by batches of {@code batchBlocks} blocks.<br>
+	 * Only a bounded count of batches is kept in flight, so the memory used does not depend on the file size.<br>
+	 * No batch is running anymore when this method returns, even on failure.
+	 * @param blockCount the total count of blocks
+	 * @param batchBlocks the count of blocks in a batch
+	 * @param task the work done on a pool thread for a batch
+	 * @param sink receives the batch results in order on the caller thread
+	 * @return {@code false} if a batch was rejected by the task
+	 * @throws Exception the first exception thrown by a task or by the sink
+	 */
+	public static boolean process(int blockCount, int batchBlocks, BatchTask task, BatchSink sink) throws Exception
+	{
+		final int maxInFlight = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * MAX_BATCHES_PER_THREAD);
+		final Deque<ForkJoinTask<byte[]>> inFlight = new ArrayDeque<>(maxInFlight);
+		final AtomicBoolean stopped = new AtomicBoolean();
+		int nextBlock = 0;
+		int doneBlocks = 0;
+		try
+		{
+			while ((nextBlock < blockCount) || !inFlight.isEmpty())
+			{
+				while ((nextBlock < blockCount) && (inFlight.size() < maxInFlight))
+				{
+					final int from = nextBlock;
+					final int to = Math.min(blockCount, from + batchBlocks);
+					inFlight.addLast(ForkJoinPool.commonPool().submit(() -> stopped.get() ? null : task.process(from, to)));
+					nextBlock = to;
+				}
+				
+				final byte[] result = join(inFlight.removeFirst());
+				if (result == null)
+				{
+					return false;
+				}
+				
+				doneBlocks = Math.min(blockCount, doneBlocks + batchBlocks);
+				sink.accept(result, doneBlocks);
+			}
+		}
+		finally
+		{
+			// Batches may read a mapped file that is unmapped once this returns, so pending batches are skipped and running ones are awaited.
+			stopped.set(true);
+			for (ForkJoinTask<byte[]> pending : inFlight)
+			{
+				pending.quietlyJoin();
+			}
+		}
+		return true;
+	}
+	
+	private static byte[] join(ForkJoinTask<byte[]> task) throws Exception
+	{
+		try
+		{
+			return task.get();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof Exception)
+			{
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+}
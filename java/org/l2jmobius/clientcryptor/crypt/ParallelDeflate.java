@@ -0,0 +1,185 @@
+/*
+ * This file is part of the L2ClientDat project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.l2jmobius.clientcryptor.crypt;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses data into a single zlib stream, by chunks deflated on the common fork-join pool like pigz does.<br>
+ * Every chunk but the last ends with a sync flush, so the raw deflate chunks can be joined, and uses the 32KB before it as dictionary, so the ratio stays close to a single deflater.
+ */
+public final class ParallelDeflate
+{
+	private static final int CHUNK_SIZE = 128 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	private static final int BUFFER_SIZE = 16 * 1024;
+	
+	private static final Map<Integer, Queue<Deflater>> DEFLATERS = new ConcurrentHashMap<>();
+	
+	private ParallelDeflate()
+	{
+	}
+	
+	/**
+	 * Writes the zlib stream of the given data: header, deflate data and Adler-32 trailer.<br>
+	 * Data smaller than two chunks is deflated in one piece, exactly like a {@link java.util.zip.DeflaterOutputStream} would do.
+	 * @param data the data to compress
+	 * @param level the compression level, from 0 to 9 or -1 for the default level
+	 * @param os the destination stream
+	 * @throws Exception
+	 */
+	public static void deflate(byte[] data, int level, OutputStream os) throws Exception
+	{
+		os.write(0x78);
+		os.write(getHeaderFlags(level));
+		
+		final Adler32 adler = new Adler32();
+		final int chunkCount = Math.max(1, (data.length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		if (ParallelCrypt.isParallel(chunkCount, 1))
+		{
+			ParallelCrypt.process(chunkCount, 1, (fromChunk, toChunk) -> deflateChunk(data, fromChunk, chunkCount, level), (result, processedChunks) ->
+			{
+				final int offset = (processedChunks - 1) * CHUNK_SIZE;
+				adler.update(data, offset, Math.min(CHUNK_SIZE, data.length - offset));
+				os.write(result);
+			});
+		}
+		else
+		{
+			os.write(deflateChunk(data, 0, 1, level));
+			adler.update(data, 0, data.length);
+		}
+		
+		final int checksum = (int) adler.getValue();
+		os.write(checksum >>> 24);
+		os.write(checksum >>> 16);
+		os.write(checksum >>> 8);
+		os.write(checksum);
+	}
+	
+	/**
+	 * @param data the whole data
+	 * @param chunk the index of the chunk to deflate
+	 * @param chunkCount the count of chunks, a single chunk covers the whole data
+	 * @param level the compression level
+	 * @return the raw deflate data of the chunk
+	 */
+	private static byte[] deflateChunk(byte[] data, int chunk, int chunkCount, int level)
+	{
+		final int offset = chunk * CHUNK_SIZE;
+		final int length = (chunkCount == 1) ? data.length : Math.min(CHUNK_SIZE, data.length - offset);
+		final boolean last = chunk == (chunkCount - 1);
+		final Deflater deflater = acquireDeflater(level);
+		try
+		{
+			if (offset > 0)
+			{
+				final int dictionarySize = Math.min(DICTIONARY_SIZE, offset);
+				deflater.setDictionary(data, offset - dictionarySize, dictionarySize);
+			}
+			deflater.setInput(data, offset, length);
+			if (last)
+			{
+				deflater.finish();
+			}
+			
+			byte[] result = new byte[Math.max(BUFFER_SIZE, (length / 2) + 64)];
+			int resultLength = 0;
+			while (true)
+			{
+				if (resultLength == result.length)
+				{
+					result = Arrays.copyOf(result, result.length * 2);
+				}
+				
+				// A sync flush is complete once it leaves some output space unused.
+				final int space = result.length - resultLength;
+				final int count = deflater.deflate(result, resultLength, space, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+				resultLength += count;
+				if (last ? deflater.finished() : (count < space))
+				{
+					break;
+				}
+			}
+			return Arrays.copyOf(result, resultLength);
+		}
+		finally
+		{
+			releaseDeflater(deflater, level);
+		}
+	}
+	
+	/**
+	 * @param level the compression level
+	 * @return the FLG byte of the zlib header, telling the level and checking the header
+	 */
+	private static int getHeaderFlags(int level)
+	{
+		final int levelFlags;
+		if ((level >= 0) && (level <= 1))
+		{
+			levelFlags = 0;
+		}
+		else if ((level >= 2) && (level <= 5))
+		{
+			levelFlags = 1;
+		}
+		else if ((level == 6) || (level == Deflater.DEFAULT_COMPRESSION))
+		{
+			levelFlags = 2;
+		}
+		else
+		{
+			levelFlags = 3;
+		}
+		final int flags = levelFlags << 6;
+		return flags + ((31 - (((0x78 << 8) | flags) % 31)) % 31);
+	}
+	
+	/**
+	 * Native deflaters are expensive to create, so a few of them are kept for the next chunks.
+	 * @param level the compression level
+	 * @return a raw deflater, without zlib header nor trailer
+	 */
+	private static Deflater acquireDeflater(int level)
+	{
+		final Deflater deflater = DEFLATERS.computeIfAbsent(level, k -> new ConcurrentLinkedQueue<>()).poll();
+		return (deflater != null) ? deflater : new Deflater(level, true);
+	}
+	
+	private static void releaseDeflater(Deflater deflater, int level)
+	{
+		deflater.reset();
+		final Queue<Deflater> deflaters = DEFLATERS.get(level);
+		if (deflaters.size() <= ForkJoinPool.getCommonPoolParallelism())
+		{
+			deflaters.offer(deflater);
+		}
+		else
+		{
+			deflater.end();
+		}
+	}
+}
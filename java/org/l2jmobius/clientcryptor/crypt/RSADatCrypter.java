@@ -16,11 +16,12 @@
  */
 package org.l2jmobius.clientcryptor.crypt;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.security.Key;
 import java.security.KeyFactory;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
@@ -29,22 +30,28 @@ import java.security.spec.RSAPublicKeySpec;
 import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
+import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
 
 import javax.crypto.Cipher;
 
+import org.l2jmobius.actions.ActionTask;
+import org.l2jmobius.clientcryptor.crypt.ParallelCrypt.BatchSink;
+import org.l2jmobius.config.ConfigDebug;
 import org.l2jmobius.util.DebugUtil;
 import org.l2jmobius.util.Util;
 
-public class RSADatCrypter extends DatCrypter
+public final class RSADatCrypter extends DatCrypter
 {
 	private static final Logger LOGGER = Logger.getLogger(RSADatCrypter.class.getName());
 	
-	private Cipher _cipher;
-	private ByteArrayOutputStream _result;
+	private static final int BLOCK_SIZE = 128;
+	private static final int BLOCK_DATA_SIZE = 124;
+	/** The most bytes a single byte of a zlib stream can inflate to. */
+	private static final int MAX_INFLATE_RATIO = 1032;
+	
+	private Key _key;
+	private final ThreadLocal<Cipher> _workerCipher = ThreadLocal.withInitial(this::createCipher);
 	private boolean _encrypt;
 	
 	public RSADatCrypter(String name, int code, String modulus, String exp, boolean deCrypt)
@@ -53,20 +60,21 @@ public class RSADatCrypter extends DatCrypter
 		_encrypt = false;
 		try
 		{
-			_cipher = Cipher.getInstance("RSA/ECB/nopadding");
 			if (deCrypt)
 			{
 				final RSAPublicKeySpec keyspec = new RSAPublicKeySpec(new BigInteger(modulus, 16), new BigInteger(exp, 16));
 				final RSAPublicKey rsaKey = (RSAPublicKey) KeyFactory.getInstance("RSA").generatePublic(keyspec);
-				_cipher.init(2, rsaKey);
+				_key = rsaKey;
 			}
 			else
 			{
 				_encrypt = true;
 				final RSAPrivateKeySpec keyspec2 = new RSAPrivateKeySpec(new BigInteger(modulus, 16), new BigInteger(exp, 16));
 				final RSAPrivateKey rsaKey2 = (RSAPrivateKey) KeyFactory.getInstance("RSA").generatePrivate(keyspec2);
-				_cipher.init(1, rsaKey2);
+				_key = rsaKey2;
 			}
+			// Check the key once, sessions and pool threads create their own cipher.
+			createCipher();
 		}
 		catch (Exception e)
 		{
@@ -74,146 +82,154 @@ public class RSADatCrypter extends DatCrypter
 		}
 	}
 	
-	@Override
-	public ByteBuffer decryptResult()
+	/**
+	 * A Cipher instance is not thread safe, so every thread working on blocks of this key gets its own one.
+	 * @return a new cipher initialized with the key of this crypter
+	 */
+	private Cipher createCipher()
 	{
-		if (!checkAquired())
-		{
-			throw new IllegalStateException("Do not even think about using a DatCrypter that you did not aquired");
-		}
-		
-		final byte[] compressed = _result.toByteArray();
-		int inflatedSize = compressed[0] & 0xFF;
-		inflatedSize += ((compressed[1] << 8) & 0xFF00);
-		inflatedSize += ((compressed[2] << 16) & 0xFF0000);
-		inflatedSize += ((compressed[3] << 24) & 0xFF000000);
-		final ByteArrayInputStream bais = new ByteArrayInputStream(compressed, 4, compressed.length - 4);
-		final InflaterInputStream iis = new InflaterInputStream(bais, new Inflater());
-		final ByteArrayOutputStream baos = new ByteArrayOutputStream(128);
-		final byte[] inflatedResult = new byte[128];
 		try
 		{
-			int len;
-			while ((len = iis.read(inflatedResult)) > 0)
-			{
-				baos.write(inflatedResult, 0, len);
-			}
+			final Cipher cipher = Cipher.getInstance("RSA/ECB/nopadding");
+			cipher.init(_encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, _key);
+			return cipher;
 		}
-		catch (IOException e)
-		{
-			LOGGER.log(Level.WARNING, e.getMessage(), e);
-		}
-		
-		if (baos.size() != inflatedSize)
+		catch (Exception e)
 		{
-			LOGGER.log(Level.WARNING, ("[RSADatCrypter] Hum inflated result does not have the expected length..(" + baos.size() + "!=" + inflatedSize + ")"));
+			throw new IllegalStateException("Cannot create RSA cipher for " + getName(), e);
 		}
-		
-		return ByteBuffer.wrap(baos.toByteArray());
 	}
 	
 	@Override
-	public ByteBuffer encryptResult()
+	public DatCrypterSession newSession()
+	{
+		return new Session();
+	}
+	
+	/**
+	 * Decrypts only the first block, which must hold a valid data size followed by the inflated size and a zlib header.
+	 */
+	@Override
+	public boolean probe(ByteBuffer body)
 	{
-		if (!checkAquired())
+		if (_encrypt || (body.remaining() < BLOCK_SIZE))
 		{
-			throw new IllegalStateException("Do not even think about using a DatCrypter that you did not aquired");
+			return true;
 		}
 		
-		final ByteArrayOutputStream result = new ByteArrayOutputStream();
 		try
 		{
-			final ByteArrayInputStream input = new ByteArrayInputStream(_result.toByteArray());
-			final byte[] buffer = new byte[124];
-			final byte[] block = new byte[128];
-			int len;
-			while ((len = input.read(buffer)) > 0)
+			final byte[] block = new byte[BLOCK_SIZE];
+			body.get(body.position(), block);
+			final byte[] chunk = _workerCipher.get().doFinal(block);
+			final int size = getBlockDataSize(chunk);
+			if (size < 0)
 			{
-				Arrays.fill(block, (byte) 0);
-				block[0] = (byte) ((len >> 24) & 0xFF);
-				block[1] = (byte) ((len >> 16) & 0xFF);
-				block[2] = (byte) ((len >> 8) & 0xFF);
-				block[3] = (byte) (len & 0xFF);
-				System.arraycopy(buffer, 0, block, 128 - len - ((124 - len) % 4), len);
-				result.write(_cipher.doFinal(block));
+				return false;
 			}
+			
+			final int offset = getBlockDataOffset(size);
+			if ((size >= 4) && (chunk[offset + 3] < 0))
+			{
+				// Negative inflated size.
+				return false;
+			}
+			
+			if (size >= 6)
+			{
+				final int cmf = chunk[offset + 4] & 0xFF;
+				final int flg = chunk[offset + 5] & 0xFF;
+				return ((cmf & 0x0F) == 8) && ((cmf >> 4) <= 7) && ((((cmf << 8) | flg) % 31) == 0);
+			}
+			return true;
 		}
 		catch (Exception e)
 		{
-			LOGGER.log(Level.WARNING, e.getMessage(), e);
+			return false;
 		}
-		
-		return ByteBuffer.wrap(result.toByteArray());
 	}
 	
-	@Override
-	public boolean update(byte[] b) throws Exception
+	/**
+	 * Encrypts a range of blocks, each block carrying up to 124 bytes of data prefixed by their count.
+	 * @param cipher the cipher to use, owned by the current thread
+	 * @param data the deflated data to encrypt
+	 * @param fromBlock the first block to encrypt (inclusive)
+	 * @param toBlock the last block to encrypt (exclusive)
+	 * @return the encrypted blocks
+	 * @throws Exception
+	 */
+	private static byte[] encryptBlocks(Cipher cipher, byte[] data, int fromBlock, int toBlock) throws Exception
 	{
-		if (!checkAquired())
+		final byte[] block = new byte[BLOCK_SIZE];
+		final byte[] result = new byte[(toBlock - fromBlock) * BLOCK_SIZE];
+		for (int i = fromBlock; i < toBlock; ++i)
 		{
-			throw new IllegalStateException("Do not even think about using a DatCrypter that you did not aquired");
+			final int offset = i * BLOCK_DATA_SIZE;
+			final int len = Math.min(BLOCK_DATA_SIZE, data.length - offset);
+			Arrays.fill(block, (byte) 0);
+			block[0] = (byte) ((len >> 24) & 0xFF);
+			block[1] = (byte) ((len >> 16) & 0xFF);
+			block[2] = (byte) ((len >> 8) & 0xFF);
+			block[3] = (byte) (len & 0xFF);
+			System.arraycopy(data, offset, block, BLOCK_SIZE - len - ((BLOCK_DATA_SIZE - len) % 4), len);
+			cipher.doFinal(block, 0, BLOCK_SIZE, result, (i - fromBlock) * BLOCK_SIZE);
 		}
-		
-		Exception exception = null;
-		try
+		return result;
+	}
+	
+	/**
+	 * Decrypts a batch of blocks on the current thread.
+	 * @param cipher the cipher to use, owned by the current thread
+	 * @param body the encrypted body, only read with absolute positions
+	 * @param offset the position of the first block
+	 * @param blockCount the count of blocks to decrypt
+	 * @return the data carried by the blocks, or {@code null} if a block is not valid for this key
+	 * @throws Exception
+	 */
+	private static byte[] decryptBlocks(Cipher cipher, ByteBuffer body, int offset, int blockCount) throws Exception
+	{
+		final byte[] block = new byte[BLOCK_SIZE];
+		final byte[] chunk = new byte[BLOCK_SIZE];
+		final byte[] result = new byte[blockCount * BLOCK_SIZE];
+		int resultLength = 0;
+		for (int i = 0; i < blockCount; ++i)
 		{
-			if (!_encrypt)
+			body.get(offset + (i * BLOCK_SIZE), block);
+			if (cipher.doFinal(block, 0, BLOCK_SIZE, chunk, 0) != BLOCK_SIZE)
 			{
-				final byte[] chunk = _cipher.doFinal(b);
-				int size = chunk[3];
-				size += ((chunk[2] << 8) & 0xFF00);
-				size += ((chunk[1] << 16) & 0xFF0000);
-				size += ((chunk[0] << 24) & 0xFF000000);
-				final int pad = (-size & 0x1) + (-size & 0x2);
-				DebugUtil.debug("Size:" + size + " pad:" + pad);
-				if (size > 128)
-				{
-					return false;
-				}
-				
-				_result.write(chunk, 128 - size - pad, size);
-				DebugUtil.debug("--- BLOCK:\n" + Util.printData(chunk) + "-----");
+				return null;
 			}
-			else
+			
+			final int size = getBlockDataSize(chunk);
+			if (size < 0)
 			{
-				try
-				{
-					final ByteArrayOutputStream s = new ByteArrayOutputStream(b.length);
-					final DeflaterOutputStream dos = new DeflaterOutputStream(s, new Deflater());
-					dos.write(b);
-					dos.finish();
-					dos.close();
-					final int l = b.length;
-					(_result = new ByteArrayOutputStream(10 + s.toByteArray().length)).write(l & 0xFF);
-					_result.write((l & 0xFF00) >> 8);
-					_result.write((l & 0xFF0000) >> 16);
-					_result.write((l & 0xFF000000) >> 24);
-					_result.write(s.toByteArray());
-				}
-				catch (IOException e)
-				{
-					exception = e;
-				}
+				return null;
 			}
+			
+			System.arraycopy(chunk, getBlockDataOffset(size), result, resultLength, size);
+			resultLength += size;
 		}
-		catch (Exception e2)
-		{
-			exception = e2;
-		}
-		
-		if (exception != null)
-		{
-			throw exception;
-		}
-		
-		return true;
+		return (resultLength == result.length) ? result : Arrays.copyOf(result, resultLength);
 	}
 	
-	@Override
-	public void aquire()
+	/**
+	 * @param chunk a decrypted block
+	 * @return the count of data bytes stored in the block, or -1 if the block is not valid
+	 */
+	private static int getBlockDataSize(byte[] chunk)
+	{
+		final int size = ((chunk[0] & 0xFF) << 24) | ((chunk[1] & 0xFF) << 16) | ((chunk[2] & 0xFF) << 8) | (chunk[3] & 0xFF);
+		return ((size < 0) || (size > BLOCK_SIZE)) ? -1 : size;
+	}
+	
+	/**
+	 * The data of a block is aligned on 4 bytes at the end of the block.
+	 * @param size the count of data bytes stored in the block
+	 * @return the position of the data in the block
+	 */
+	private static int getBlockDataOffset(int size)
 	{
-		super.aquire();
-		_result = new ByteArrayOutputStream(128);
+		return BLOCK_SIZE - size - ((-size & 0x1) + (-size & 0x2));
 	}
 	
 	@Override
@@ -225,7 +241,7 @@ public class RSADatCrypter extends DatCrypter
 	@Override
 	public int getChunkSize(int available)
 	{
-		return 128;
+		return BLOCK_SIZE;
 	}
 	
 	@Override
@@ -233,4 +249,243 @@ public class RSADatCrypter extends DatCrypter
 	{
 		return 20;
 	}
+	
+	private class Session extends DatCrypterSession
+	{
+		private final Cipher _cipher = createCipher();
+		private final Inflater _inflater = new Inflater();
+		private ByteArrayOutputStream _result;
+		private byte[] _inflated;
+		private int _inflatedLength;
+		private int _inflatedSize;
+		private int _headerLength;
+		/** The size of the encrypted body, which the deflated data cannot exceed, 0 if the blocks come one by one. */
+		private int _bodyLength;
+		
+		Session()
+		{
+			super(RSADatCrypter.this);
+		}
+		
+		@Override
+		public ByteBuffer decryptResult()
+		{
+			if (_inflated == null)
+			{
+				LOGGER.log(Level.WARNING, "[RSADatCrypter] Hum decrypted result is too short to contain the inflated size.");
+				return ByteBuffer.allocate(0);
+			}
+			
+			if ((_inflatedLength != _inflatedSize) || !_inflater.finished())
+			{
+				LOGGER.log(Level.WARNING, ("[RSADatCrypter] Hum inflated result does not have the expected length..(" + _inflatedLength + "!=" + _inflatedSize + ")"));
+			}
+			
+			return ByteBuffer.wrap((_inflatedLength == _inflated.length) ? _inflated : Arrays.copyOf(_inflated, _inflatedLength));
+		}
+		
+		/**
+		 * Streams the data carried by the decrypted blocks into the inflater.<br>
+		 * The first 4 bytes are the inflated size, used to allocate the result once when the deflated data can reach it.
+		 * @param data the decrypted data
+		 * @param offset the position of the data
+		 * @param length the count of bytes
+		 * @throws DataFormatException if the data is not a valid zlib stream
+		 */
+		private void inflate(byte[] data, int offset, int length) throws DataFormatException
+		{
+			int position = offset;
+			int remaining = length;
+			while ((_inflated == null) && (remaining > 0))
+			{
+				_inflatedSize |= (data[position++] & 0xFF) << (_headerLength++ * 8);
+				remaining--;
+				if (_headerLength == 4)
+				{
+					if (_inflatedSize < 0)
+					{
+						throw new DataFormatException("Invalid inflated size " + _inflatedSize);
+					}
+					// The header is not trusted, a damaged one must not allocate more than the data can inflate to.
+					final long limit = (long) Math.max(_bodyLength, remaining) * MAX_INFLATE_RATIO;
+					_inflated = new byte[(int) Math.min(_inflatedSize, limit)];
+				}
+			}
+			
+			if ((remaining == 0) || _inflater.finished())
+			{
+				return;
+			}
+			
+			_inflater.setInput(data, position, remaining);
+			while (!_inflater.needsInput() && !_inflater.finished())
+			{
+				if (_inflatedLength == _inflated.length)
+				{
+					// The header lied about the size or was larger than the data, keep what comes anyway.
+					_inflated = Arrays.copyOf(_inflated, Math.max(BLOCK_SIZE, _inflated.length + (_inflated.length >> 1)));
+				}
+				
+				final int inflated = _inflater.inflate(_inflated, _inflatedLength, _inflated.length - _inflatedLength);
+				if ((inflated == 0) && _inflater.needsDictionary())
+				{
+					throw new DataFormatException("Preset dictionary is not supported");
+				}
+				_inflatedLength += inflated;
+			}
+		}
+		
+		@Override
+		public ByteBuffer encryptResult()
+		{
+			final ByteArrayOutputStream result = new ByteArrayOutputStream();
+			try
+			{
+				writeEncryptResult(result, null, 0.0);
+			}
+			catch (IllegalStateException e)
+			{
+				throw e;
+			}
+			catch (Exception e)
+			{
+				LOGGER.log(Level.WARNING, e.getMessage(), e);
+			}
+			
+			return ByteBuffer.wrap(result.toByteArray());
+		}
+		
+		@Override
+		public void writeEncryptResult(OutputStream os, ActionTask actionTask, double weight) throws Exception
+		{
+			final byte[] data = _result.toByteArray();
+			final int blockCount = (data.length + BLOCK_DATA_SIZE - 1) / BLOCK_DATA_SIZE;
+			final double progress = (actionTask != null) ? actionTask.getCurrentProgress() : 0.0;
+			final BatchSink sink = (result, processedBlocks) ->
+			{
+				os.write(result);
+				if (actionTask != null)
+				{
+					actionTask.addProgress(progress, (100.0 * processedBlocks) / blockCount, weight);
+				}
+			};
+			
+			final int batchBlocks = ParallelCrypt.getBatchBlocks(BLOCK_SIZE);
+			if (ParallelCrypt.isParallel(blockCount, batchBlocks))
+			{
+				ParallelCrypt.process(blockCount, batchBlocks, (fromBlock, toBlock) -> encryptBlocks(_workerCipher.get(), data, fromBlock, toBlock), sink);
+				return;
+			}
+			
+			for (int fromBlock = 0; fromBlock < blockCount; fromBlock += batchBlocks)
+			{
+				final int toBlock = Math.min(blockCount, fromBlock + batchBlocks);
+				sink.accept(encryptBlocks(_cipher, data, fromBlock, toBlock), toBlock);
+			}
+		}
+		
+		@Override
+		public boolean update(byte[] b) throws Exception
+		{
+			Exception exception = null;
+			try
+			{
+				if (!_encrypt)
+				{
+					final byte[] chunk = _cipher.doFinal(b);
+					final int size = getBlockDataSize(chunk);
+					DebugUtil.debug("Size:" + size);
+					if (size < 0)
+					{
+						return false;
+					}
+					
+					inflate(chunk, getBlockDataOffset(size), size);
+					DebugUtil.debug("--- BLOCK:\n" + Util.printData(chunk) + "-----");
+				}
+				else
+				{
+					try
+					{
+						final int l = b.length;
+						_result = new ByteArrayOutputStream(10 + (b.length / 2));
+						_result.write(l & 0xFF);
+						_result.write((l & 0xFF00) >> 8);
+						_result.write((l & 0xFF0000) >> 16);
+						_result.write((l & 0xFF000000) >> 24);
+						ParallelDeflate.deflate(b, ConfigDebug.DEFLATE_LEVEL, _result);
+					}
+					catch (IOException e)
+					{
+						exception = e;
+					}
+				}
+			}
+			catch (DataFormatException e)
+			{
+				LOGGER.log(Level.FINE, "[RSADatCrypter] Invalid zlib stream: " + e.getMessage());
+				return false;
+			}
+			catch (Exception e2)
+			{
+				exception = e2;
+			}
+			
+			if (exception != null)
+			{
+				throw exception;
+			}
+			
+			return true;
+		}
+		
+		@Override
+		public boolean update(ByteBuffer body) throws Exception
+		{
+			final int length = body.remaining();
+			_bodyLength = length;
+			if (_encrypt || ((length % BLOCK_SIZE) != 0))
+			{
+				return super.update(body);
+			}
+			
+			final int offset = body.position();
+			final int blockCount = length / BLOCK_SIZE;
+			final int batchBlocks = ParallelCrypt.getBatchBlocks(BLOCK_SIZE);
+			try
+			{
+				if (ParallelCrypt.isParallel(blockCount, batchBlocks))
+				{
+					return ParallelCrypt.process(blockCount, batchBlocks, (fromBlock, toBlock) -> decryptBlocks(_workerCipher.get(), body, offset + (fromBlock * BLOCK_SIZE), toBlock - fromBlock), (result, processedBlocks) -> inflate(result, 0, result.length));
+				}
+				
+				for (int fromBlock = 0; fromBlock < blockCount; fromBlock += batchBlocks)
+				{
+					final byte[] result = decryptBlocks(_cipher, body, offset + (fromBlock * BLOCK_SIZE), Math.min(batchBlocks, blockCount - fromBlock));
+					if (result == null)
+					{
+						return false;
+					}
+					inflate(result, 0, result.length);
+				}
+				return true;
+			}
+			catch (Exception e)
+			{
+				if (!(e instanceof DataFormatException))
+				{
+					throw e;
+				}
+				
+				LOGGER.log(Level.FINE, "[RSADatCrypter] Invalid zlib stream: " + e.getMessage());
+				return false;
+			}
+		}
+		
+		@Override
+		public void close()
+		{
+			_inflater.end();
+		}
+	}
 }
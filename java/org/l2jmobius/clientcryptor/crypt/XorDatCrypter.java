@@ -16,48 +16,65 @@
  */
 package org.l2jmobius.clientcryptor.crypt;
 
-import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.l2jmobius.actions.ActionTask;
 
 public class XorDatCrypter extends DatCrypter
 {
+	private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final int WRITE_CHUNK_SIZE = 64 * 1024;
+	private static final byte[] EMPTY = new byte[0];
+	
 	private final boolean _encrypt;
 	private final int _xorKey;
-	private ByteArrayOutputStream _result;
 	
 	public XorDatCrypter(String name, int code, int key, boolean deCrypt)
 	{
 		super(name, code);
 		_encrypt = !deCrypt;
-		_xorKey = key;
+		_xorKey = key & 0xFF;
 	}
 	
 	@Override
-	public ByteBuffer decryptResult()
+	public DatCrypterSession newSession()
 	{
-		return ByteBuffer.wrap(_result.toByteArray());
+		return new Session();
 	}
 	
-	@Override
-	public ByteBuffer encryptResult()
+	/**
+	 * Xors a whole region with the key, a long at a time.
+	 * @param src the source array
+	 * @param srcOff the position in the source array
+	 * @param dst the destination array, can be the source array
+	 * @param dstOff the position in the destination array
+	 * @param length the count of bytes to process
+	 * @param key the xor key
+	 */
+	public static void xor(byte[] src, int srcOff, byte[] dst, int dstOff, int length, int key)
 	{
-		return ByteBuffer.wrap(_result.toByteArray());
-	}
-	
-	@Override
-	public boolean update(byte[] bArray)
-	{
-		for (byte b : bArray)
+		final long wideKey = 0x0101010101010101L * (key & 0xFF);
+		final int wideEnd = length & ~7;
+		int i = 0;
+		for (; i < wideEnd; i += 8)
+		{
+			LONG_VIEW.set(dst, dstOff + i, (long) LONG_VIEW.get(src, srcOff + i) ^ wideKey);
+		}
+		for (; i < length; ++i)
 		{
-			_result.write(b ^ _xorKey);
+			dst[dstOff + i] = (byte) (src[srcOff + i] ^ key);
 		}
-		return true;
 	}
 	
 	@Override
 	public int getChunkSize(int available)
 	{
-		return 1;
+		return available;
 	}
 	
 	@Override
@@ -72,10 +89,94 @@ public class XorDatCrypter extends DatCrypter
 		return _encrypt;
 	}
 	
-	@Override
-	public void aquire()
+	private class Session extends DatCrypterSession
 	{
-		super.aquire();
-		_result = new ByteArrayOutputStream(128);
+		private byte[] _result = EMPTY;
+		private int _resultLength;
+		
+		Session()
+		{
+			super(XorDatCrypter.this);
+		}
+		
+		@Override
+		public ByteBuffer decryptResult()
+		{
+			return ByteBuffer.wrap((_result.length == _resultLength) ? _result : Arrays.copyOf(_result, _resultLength));
+		}
+		
+		@Override
+		public ByteBuffer encryptResult()
+		{
+			final byte[] result = new byte[_resultLength];
+			xor(_result, 0, result, 0, _resultLength, _xorKey);
+			return ByteBuffer.wrap(result);
+		}
+		
+		/**
+		 * Encrypted data is not kept in memory, it is xored by fixed size chunks straight into the output stream.
+		 */
+		@Override
+		public void writeEncryptResult(OutputStream os, ActionTask actionTask, double weight) throws Exception
+		{
+			final double progress = (actionTask != null) ? actionTask.getCurrentProgress() : 0.0;
+			final byte[] chunk = new byte[Math.min(WRITE_CHUNK_SIZE, _resultLength)];
+			for (int position = 0; position < _resultLength; position += chunk.length)
+			{
+				final int length = Math.min(chunk.length, _resultLength - position);
+				xor(_result, position, chunk, 0, length, _xorKey);
+				os.write(chunk, 0, length);
+				if (actionTask != null)
+				{
+					actionTask.addProgress(progress, (100.0 * (position + length)) / _resultLength, weight);
+				}
+			}
+		}
+		
+		@Override
+		public boolean update(byte[] bArray)
+		{
+			if (_encrypt && (_resultLength == 0))
+			{
+				// Keep the plain data as is, it is xored while being written.
+				_result = bArray;
+				_resultLength = bArray.length;
+				return true;
+			}
+			
+			if (_result.length < (_resultLength + bArray.length))
+			{
+				_result = Arrays.copyOf(_result, _resultLength + bArray.length);
+			}
+			
+			if (_encrypt)
+			{
+				System.arraycopy(bArray, 0, _result, _resultLength, bArray.length);
+			}
+			else
+			{
+				xor(bArray, 0, _result, _resultLength, bArray.length, _xorKey);
+			}
+			_resultLength += bArray.length;
+			return true;
+		}
+		
+		/**
+		 * The body is copied once out of the mapped file, then xored in place.
+		 */
+		@Override
+		public boolean update(ByteBuffer body) throws Exception
+		{
+			if (_encrypt || (_resultLength > 0))
+			{
+				return super.update(body);
+			}
+			
+			_resultLength = body.remaining();
+			_result = new byte[_resultLength];
+			body.get(body.position(), _result);
+			xor(_result, 0, _result, 0, _resultLength, _xorKey);
+			return true;
+		}
 	}
 }
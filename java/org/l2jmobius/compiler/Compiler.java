@@ -21,6 +21,7 @@ import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.logging.Level;
@@ -70,6 +71,18 @@ public class Compiler
 		return compile(files.toArray(new File[0]));
 	}
 	
+	/**
+	 * Compiles a source generated at runtime, the classes are added to the class loader of this compiler.
+	 * @param className the binary name of the public class of the source
+	 * @param source the java source
+	 * @return {@code true} if the source compiled without error
+	 */
+	public boolean compile(String className, String source)
+	{
+		final CompilationTask compile = Compiler.JAVAC.getTask(new StringWriter(), _memFileManager, _listener, null, null, Collections.singletonList(new MemorySourceCode(className, source)));
+		return compile.call();
+	}
+	
 	public MemoryClassLoader getClassLoader()
 	{
 		return _memClassLoader;
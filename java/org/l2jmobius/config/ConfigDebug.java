@@ -24,14 +24,22 @@ public class ConfigDebug
 	private static final Logger LOGGER = Logger.getLogger(ConfigDebug.class.getName());
 	
 	public static boolean DAT_ADD_END_BYTES;
+	public static boolean DAT_CHECK_CRC;
 	public static boolean DAT_DEBUG_MSG;
 	public static boolean DAT_DEBUG_POS;
 	public static boolean DAT_DEBUG_POS_BUFFER;
 	public static int DAT_DEBUG_POS_LIMIT;
 	public static boolean DAT_REPLACEMENT_NAMES;
 	public static boolean DAT_REPLACEMENT_ENUMS;
+	public static boolean DAT_GENERATED_DECODERS;
+	public static boolean DAT_VERIFY_DECODERS;
 	public static boolean ENCRYPT;
 	public static boolean SAVE_DECODE;
+	public static boolean PARALLEL_CRYPT;
+	public static int PARALLEL_CRYPT_BATCH_SIZE;
+	public static boolean PARALLEL_DECODE;
+	public static int PARALLEL_DECODE_BATCH_SIZE;
+	public static int DEFLATE_LEVEL;
 	
 	public static void load()
 	{
@@ -39,13 +47,21 @@ public class ConfigDebug
 		{
 			final PropertiesParser parser = new PropertiesParser("./config/config_debug.ini");
 			DAT_ADD_END_BYTES = parser.getBoolean("DAT_ADD_END_BYTES", false);
+			DAT_CHECK_CRC = parser.getBoolean("DAT_CHECK_CRC", false);
 			DAT_DEBUG_MSG = parser.getBoolean("DAT_DEBUG_MSG", false);
 			DAT_DEBUG_POS = parser.getBoolean("DAT_DEBUG_POS", false);
 			DAT_DEBUG_POS_LIMIT = parser.getInt("DAT_DEBUG_POS_LIMIT", 100000);
 			DAT_REPLACEMENT_NAMES = parser.getBoolean("DAT_REPLACEMENT_NAMES", true);
 			DAT_REPLACEMENT_ENUMS = parser.getBoolean("DAT_REPLACEMENT_ENUMS", true);
+			DAT_GENERATED_DECODERS = parser.getBoolean("DAT_GENERATED_DECODERS", false);
+			DAT_VERIFY_DECODERS = parser.getBoolean("DAT_VERIFY_DECODERS", false);
 			ENCRYPT = parser.getBoolean("ENCRYPT", true);
 			SAVE_DECODE = parser.getBoolean("SAVE_DECODE", false);
+			PARALLEL_CRYPT = parser.getBoolean("PARALLEL_CRYPT", true);
+			PARALLEL_CRYPT_BATCH_SIZE = parser.getInt("PARALLEL_CRYPT_BATCH_SIZE", 65536);
+			PARALLEL_DECODE = parser.getBoolean("PARALLEL_DECODE", true);
+			PARALLEL_DECODE_BATCH_SIZE = parser.getInt("PARALLEL_DECODE_BATCH_SIZE", 512);
+			DEFLATE_LEVEL = Math.max(-1, Math.min(9, parser.getInt("DEFLATE_LEVEL", -1)));
 		}
 		catch (Exception e)
 		{
@@ -18,10 +18,8 @@ package org.l2jmobius.data;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.List;
@@ -32,6 +30,7 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import org.l2jmobius.L2ClientDat;
 import org.l2jmobius.clientcryptor.DatFile;
+import org.l2jmobius.clientcryptor.DatFileInfo;
 import org.l2jmobius.clientcryptor.crypt.DatCrypter;
 import org.l2jmobius.config.ConfigDebug;
 import org.l2jmobius.util.ByteReader;
@@ -62,6 +61,8 @@ public class GameDataName
 	private final Map<Integer, String> _names = new TreeMap<>();
 	private final Map<String, Integer> _nameHash = new HashMap<>();
 	private File _currDataNameFile = null;
+	/** A copy of the names for {@link #getString}, read without the lock, {@code null} until they are loaded or once they change. */
+	private volatile LoadedNames _loadedNames;
 	
 	public GameDataName()
 	{
@@ -74,6 +75,7 @@ public class GameDataName
 		{
 			_names.clear();
 			_nameHash.clear();
+			_loadedNames = null;
 			if (decCrypter.isEncrypt())
 			{
 				final File file = new File(currentFile.getParent(), "L2GameDataName.txt");
@@ -119,34 +121,32 @@ public class GameDataName
 				
 				if (file.exists())
 				{
-					final FileInputStream fis = new FileInputStream(file);
-					if (fis.available() < 28)
+					final ByteBuffer buff;
+					try (DatFile dat = new DatFile(file.getAbsolutePath()))
 					{
-						L2ClientDat.addLogConsole(file.getName() + " The file is too small.", true);
-						fis.close();
-						return;
-					}
-					
-					final byte[] head = new byte[28];
-					fis.read(head);
-					fis.close();
-					final String header = new String(head, StandardCharsets.UTF_16LE);
-					if (!header.startsWith("Lineage2Ver"))
-					{
-						L2ClientDat.addLogConsole("GameDataName: File " + file.getName() + " not encrypted. Skip decrypt.", true);
-						return;
-					}
-					
-					if (Integer.parseInt(header.substring(11)) != decCrypter.getCode())
-					{
-						L2ClientDat.addLogConsole("GameDataName: File " + file.getName() + " encrypted code: " + header + ". Skip decrypt.", true);
-						return;
+						final DatFileInfo info = dat.getInfo();
+						if (info.getHeader() == null)
+						{
+							L2ClientDat.addLogConsole(file.getName() + " The file is too small.", true);
+							return;
+						}
+						
+						if (!info.getHeader().startsWith("Lineage2Ver"))
+						{
+							L2ClientDat.addLogConsole("GameDataName: File " + file.getName() + " not encrypted. Skip decrypt.", true);
+							return;
+						}
+						
+						if (info.getCode() != decCrypter.getCode())
+						{
+							L2ClientDat.addLogConsole("GameDataName: File " + file.getName() + " encrypted code: " + info.getHeader() + ". Skip decrypt.", true);
+							return;
+						}
+						
+						L2ClientDat.addLogConsole("Unpacking [" + file.getName() + "]", true);
+						dat.decrypt(decCrypter);
+						buff = dat.getBuff();
 					}
-					
-					L2ClientDat.addLogConsole("Unpacking [" + file.getName() + "]", true);
-					final DatFile dat = new DatFile(file.getAbsolutePath());
-					dat.decrypt(decCrypter);
-					final ByteBuffer buff = dat.getBuff();
 					for (int size = ByteReader.readUInt(buff), j = 0; j < size; ++j)
 					{
 						final String name2 = ByteReader.readUtfString(buff, false);
@@ -175,8 +175,29 @@ public class GameDataName
 		}
 	}
 	
-	public String getString(File currentFile, DatCrypter crypter, int index, boolean mass) throws Exception
+	/**
+	 * Loads the names for a file unless they are loaded, so decoders running in parallel only read them.
+	 * @param currentFile the dat file
+	 * @param crypter the crypter of the dat file
+	 * @throws Exception
+	 */
+	public void loadNames(File currentFile, DatCrypter crypter) throws Exception
 	{
+		getLoadedNames(currentFile, crypter);
+	}
+	
+	/**
+	 * Only the first call, and the first one after the names change, takes the lock.
+	 * @return the names loaded for the file
+	 */
+	private LoadedNames getLoadedNames(File currentFile, DatCrypter crypter) throws Exception
+	{
+		final LoadedNames loadedNames = _loadedNames;
+		if (loadedNames != null)
+		{
+			return loadedNames;
+		}
+		
 		_lock.lock();
 		try
 		{
@@ -185,19 +206,12 @@ public class GameDataName
 				load(currentFile, crypter);
 			}
 			
-			if (!mass && !_names.containsKey(index) && _currDataNameFile.exists())
+			final LoadedNames names = new LoadedNames(_currDataNameFile, Map.copyOf(_names));
+			if (_currDataNameFile != null)
 			{
-				L2ClientDat.addLogConsole("GameDataName: Not found string for index: " + index, true);
-				return "[None]";
+				_loadedNames = names;
 			}
-			
-			final String val = _names.getOrDefault(index, "<StrID:" + index + ">");
-			if (!mass && val.isEmpty())
-			{
-				L2ClientDat.addLogConsole("GameDataName: String name Empty!!! Index: " + index + ", file: " + currentFile.getName(), true);
-			}
-			
-			return "[" + val + "]";
+			return names;
 		}
 		finally
 		{
@@ -205,6 +219,24 @@ public class GameDataName
 		}
 	}
 	
+	public String getString(File currentFile, DatCrypter crypter, int index, boolean mass) throws Exception
+	{
+		final LoadedNames loadedNames = getLoadedNames(currentFile, crypter);
+		if (!mass && !loadedNames._names.containsKey(index) && loadedNames._file.exists())
+		{
+			L2ClientDat.addLogConsole("GameDataName: Not found string for index: " + index, true);
+			return "[None]";
+		}
+		
+		final String val = loadedNames._names.getOrDefault(index, "<StrID:" + index + ">");
+		if (!mass && val.isEmpty())
+		{
+			L2ClientDat.addLogConsole("GameDataName: String name Empty!!! Index: " + index + ", file: " + currentFile.getName(), true);
+		}
+		
+		return "[" + val + "]";
+	}
+	
 	public int getId(File currentFile, DatCrypter crypter, ParamNode node, String str, boolean mass) throws Exception
 	{
 		if ((!str.startsWith("[") || !str.endsWith("]")) && !mass)
@@ -243,6 +275,7 @@ public class GameDataName
 			final int newIndex = _names.size();
 			_names.put(newIndex, str);
 			_nameHash.put(str.toLowerCase(), newIndex);
+			_loadedNames = null;
 			return newIndex;
 		}
 		finally
@@ -299,6 +332,7 @@ public class GameDataName
 			_names.clear();
 			_nameHash.clear();
 			_currDataNameFile = null;
+			_loadedNames = null;
 		}
 		finally
 		{
@@ -306,6 +340,18 @@ public class GameDataName
 		}
 	}
 	
+	private static class LoadedNames
+	{
+		private final File _file;
+		private final Map<Integer, String> _names;
+		
+		public LoadedNames(File file, Map<Integer, String> names)
+		{
+			_file = file;
+			_names = names;
+		}
+	}
+	
 	public static GameDataName getInstance()
 	{
 		return SingletonHolder.INSTANCE;
@@ -0,0 +1,166 @@
+/*
+ * This file is part of the L2ClientDat project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.l2jmobius.util;
+
+import java.util.Arrays;
+
+/**
+ * A growable little endian output, the values are written straight into a single array.
+ */
+public class ByteBuilder
+{
+	private static final int MIN_CAPACITY = 64;
+	
+	private byte[] _buf;
+	private int _length;
+	
+	public ByteBuilder(int capacity)
+	{
+		_buf = new byte[Math.max(MIN_CAPACITY, capacity)];
+	}
+	
+	public int length()
+	{
+		return _length;
+	}
+	
+	/**
+	 * @param count the count of bytes about to be written
+	 */
+	private void ensure(int count)
+	{
+		final int required = _length + count;
+		if (required > _buf.length)
+		{
+			_buf = Arrays.copyOf(_buf, Math.max(required, _buf.length + (_buf.length >> 1)));
+		}
+	}
+	
+	public void writeByte(int value)
+	{
+		ensure(1);
+		_length = ByteWriter.writeByte(_buf, _length, value);
+	}
+	
+	public void writeShort(int value)
+	{
+		ensure(2);
+		_length = ByteWriter.writeShort(_buf, _length, value);
+	}
+	
+	public void writeInt(int value)
+	{
+		ensure(4);
+		_length = ByteWriter.writeInt(_buf, _length, value);
+	}
+	
+	public void writeLong(long value)
+	{
+		ensure(8);
+		_length = ByteWriter.writeLong(_buf, _length, value);
+	}
+	
+	public void writeFloat(float value)
+	{
+		ensure(4);
+		_length = ByteWriter.writeFloat(_buf, _length, value);
+	}
+	
+	public void writeDouble(double value)
+	{
+		ensure(8);
+		_length = ByteWriter.writeDouble(_buf, _length, value);
+	}
+	
+	public void writeCompactInt(int value)
+	{
+		ensure(ByteWriter.MAX_COMPACT_INT_SIZE);
+		_length = ByteWriter.writeCompactInt(_buf, _length, value);
+	}
+	
+	public void writeRGB(String rgb)
+	{
+		ensure(3);
+		_length = ByteWriter.writeRGB(_buf, _length, rgb);
+	}
+	
+	public void writeRGBA(String rgba)
+	{
+		ensure(4);
+		_length = ByteWriter.writeRGBA(_buf, _length, rgba);
+	}
+	
+	public void writeUtfString(String str, boolean isRaw)
+	{
+		ensure(ByteWriter.getMaxUtfStringSize(str));
+		_length = ByteWriter.writeUtfString(_buf, _length, str, isRaw);
+	}
+	
+	public void writeString(String s, boolean isRaw)
+	{
+		ensure(ByteWriter.getMaxStringSize(s));
+		_length = ByteWriter.writeString(_buf, _length, s, isRaw);
+	}
+	
+	public void write(byte[] bytes)
+	{
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, _buf, _length, bytes.length);
+		_length += bytes.length;
+	}
+	
+	/**
+	 * Writes {@code count} zero bytes, to be patched later.
+	 */
+	public void reserve(int count)
+	{
+		ensure(count);
+		Arrays.fill(_buf, _length, _length + count, (byte) 0);
+		_length += count;
+	}
+	
+	/**
+	 * Replaces the {@code count} bytes at {@code position} by the bytes written from {@code from} to the end.<br>
+	 * When both have the same size the bytes are patched in place, otherwise the bytes between are moved by the difference.
+	 * @param position the start of the replaced bytes
+	 * @param count the count of replaced bytes
+	 * @param from the start of the new bytes, which are removed from the end
+	 */
+	public void patch(int position, int count, int from)
+	{
+		final int size = _length - from;
+		if (size == count)
+		{
+			System.arraycopy(_buf, from, _buf, position, size);
+		}
+		else
+		{
+			final byte[] value = Arrays.copyOfRange(_buf, from, _length);
+			System.arraycopy(_buf, position + count, _buf, position + size, from - position - count);
+			System.arraycopy(value, 0, _buf, position, size);
+		}
+		_length = (from + size) - count;
+	}
+	
+	/**
+	 * @return the written bytes, the array itself if it is full
+	 */
+	public byte[] toByteArray()
+	{
+		return (_length == _buf.length) ? _buf : Arrays.copyOf(_buf, _length);
+	}
+}
@@ -18,6 +18,7 @@ package org.l2jmobius.util;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
@@ -26,6 +27,16 @@ public class ByteReader
 {
 	private static final Charset DEFAULT_CHARSET = Charset.forName("cp1252");
 	private static final Charset UTF_16_LE_CHARSET = StandardCharsets.UTF_16LE;
+	/** The chars of the default charset by byte, it maps every byte to a single char. */
+	private static final char[] DEFAULT_CHARS = new String(allBytes(), DEFAULT_CHARSET).toCharArray();
+	/** Longer strings are seldom repeated and are not de-duplicated. */
+	private static final int MAX_CACHED_LENGTH = 64;
+	private static final int CACHE_SIZE = 4096;
+	/**
+	 * The last read string of each hash bucket, so repeated values share a single instance without interning.<br>
+	 * Strings are immutable, so the entries are shared between threads without locking.
+	 */
+	private static final String[] CACHE = new String[CACHE_SIZE];
 	
 	public static char readChar(ByteBuffer buffer)
 	{
@@ -156,6 +167,39 @@ public class ByteReader
 			throw new Exception("To much data.");
 		}
 		
+		// Odd sizes, byte order marks and truncated strings are decoded as they always were.
+		final int position = buffer.position();
+		if (((size & 1) != 0) || (size > buffer.remaining()) || isByteOrderMark(buffer, position))
+		{
+			return checkAndReplaceNewLine(isRaw, readUnicodeString(buffer, size));
+		}
+		
+		final String str;
+		if (buffer.hasArray())
+		{
+			str = decodeUtf16(buffer.array(), buffer.arrayOffset() + position, size >> 1);
+		}
+		else
+		{
+			final byte[] bytes = new byte[size];
+			buffer.get(position, bytes);
+			str = decodeUtf16(bytes, 0, size >> 1);
+		}
+		buffer.position(position + size);
+		return checkAndReplaceNewLine(isRaw, str);
+	}
+	
+	private static boolean isByteOrderMark(ByteBuffer buffer, int position)
+	{
+		final int c = (buffer.get(position) & 0xFF) | ((buffer.get(position + 1) & 0xFF) << 8);
+		return (c == 0xFEFF) || (c == 0xFFFE);
+	}
+	
+	/**
+	 * Decodes the chars as big endian with the BOM sniffing "Unicode" charset, the byte order of its mark wins.
+	 */
+	private static String readUnicodeString(ByteBuffer buffer, int size) throws Exception
+	{
 		final byte[] bytes = new byte[size];
 		try
 		{
@@ -170,7 +214,7 @@ public class ByteReader
 			e.printStackTrace();
 		}
 		
-		return checkAndReplaceNewLine(isRaw, new String(new String(bytes, "Unicode").getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8));
+		return new String(bytes, "Unicode");
 	}
 	
 	public static String readString(ByteBuffer input, boolean isRaw) throws Exception
@@ -187,9 +231,159 @@ public class ByteReader
 			throw new Exception("To much data.");
 		}
 		
-		final byte[] bytes = new byte[size];
-		input.get(bytes);
-		return checkAndReplaceNewLine(isRaw, new String(bytes, 0, bytes.length - ((len > 0) ? 1 : 2), (len > 0) ? ByteReader.DEFAULT_CHARSET : ByteReader.UTF_16_LE_CHARSET).intern());
+		// An overflowed size cannot be read as a string either.
+		if ((size <= 0) || (size > input.remaining()))
+		{
+			throw new BufferUnderflowException();
+		}
+		
+		final int position = input.position();
+		final byte[] bytes;
+		final int offset;
+		if (input.hasArray())
+		{
+			bytes = input.array();
+			offset = input.arrayOffset() + position;
+		}
+		else
+		{
+			bytes = new byte[size];
+			input.get(position, bytes);
+			offset = 0;
+		}
+		input.position(position + size);
+		
+		// The terminating zero is not part of the string.
+		final String str = (len > 0) ? decodeDefault(bytes, offset, size - 1) : decodeUtf16(bytes, offset, (size - 2) >> 1);
+		return checkAndReplaceNewLine(isRaw, str);
+	}
+	
+	/**
+	 * @param length the count of chars, two bytes each
+	 * @return the UTF-16LE string, the cached instance if it was read last in its bucket
+	 */
+	private static String decodeUtf16(byte[] bytes, int offset, int length)
+	{
+		if (length > MAX_CACHED_LENGTH)
+		{
+			return new String(bytes, offset, length << 1, UTF_16_LE_CHARSET);
+		}
+		
+		int hash = 0;
+		for (int i = 0, p = offset; i < length; ++i, p += 2)
+		{
+			hash = (31 * hash) + ((bytes[p] & 0xFF) | ((bytes[p + 1] & 0xFF) << 8));
+		}
+		
+		final int index = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+		final String cached = CACHE[index];
+		if ((cached != null) && (cached.length() == length) && (cached.hashCode() == hash))
+		{
+			int i = 0;
+			for (int p = offset; (i < length) && (cached.charAt(i) == ((bytes[p] & 0xFF) | ((bytes[p + 1] & 0xFF) << 8))); p += 2)
+			{
+				++i;
+			}
+			if (i == length)
+			{
+				return cached;
+			}
+		}
+		
+		final String str = new String(bytes, offset, length << 1, UTF_16_LE_CHARSET);
+		CACHE[index] = str;
+		return str;
+	}
+	
+	/**
+	 * @param length the count of chars, one byte each
+	 * @return the string of the default charset, the cached instance if it was read last in its bucket
+	 */
+	private static String decodeDefault(byte[] bytes, int offset, int length)
+	{
+		if (length > MAX_CACHED_LENGTH)
+		{
+			return new String(bytes, offset, length, DEFAULT_CHARSET);
+		}
+		
+		int hash = 0;
+		for (int i = 0; i < length; ++i)
+		{
+			hash = (31 * hash) + DEFAULT_CHARS[bytes[offset + i] & 0xFF];
+		}
+		
+		final int index = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+		final String cached = CACHE[index];
+		if ((cached != null) && (cached.length() == length) && (cached.hashCode() == hash))
+		{
+			int i = 0;
+			while ((i < length) && (cached.charAt(i) == DEFAULT_CHARS[bytes[offset + i] & 0xFF]))
+			{
+				++i;
+			}
+			if (i == length)
+			{
+				return cached;
+			}
+		}
+		
+		final String str = new String(bytes, offset, length, DEFAULT_CHARSET);
+		CACHE[index] = str;
+		return str;
+	}
+	
+	private static byte[] allBytes()
+	{
+		final byte[] bytes = new byte[256];
+		for (int i = 0; i < bytes.length; ++i)
+		{
+			bytes[i] = (byte) i;
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Moves the buffer past a string read by {@link #readUtfString(ByteBuffer, boolean)}, a truncated string ends the buffer the same way.
+	 */
+	public static void skipUtfString(ByteBuffer buffer) throws Exception
+	{
+		final int size = readInt(buffer);
+		if (size <= 0)
+		{
+			return;
+		}
+		
+		if (size > 1000000)
+		{
+			throw new Exception("To much data.");
+		}
+		
+		buffer.position(buffer.position() + Math.min(size, buffer.remaining()));
+	}
+	
+	/**
+	 * Moves the buffer past a string read by {@link #readString(ByteBuffer, boolean)}.
+	 */
+	public static void skipString(ByteBuffer input) throws Exception
+	{
+		final int len = readCompactInt(input);
+		if (len == 0)
+		{
+			return;
+		}
+		
+		final int size = (len > 0) ? len : (-2 * len);
+		if (size > 1000000)
+		{
+			throw new Exception("To much data.");
+		}
+		
+		// An overflowed size cannot be read as a string either.
+		if ((size <= 0) || (size > input.remaining()))
+		{
+			throw new BufferUnderflowException();
+		}
+		input.position(input.position() + size);
 	}
 	
 	private static String checkAndReplaceNewLine(boolean isRaw, String str)
@@ -16,20 +16,34 @@
  */
 package org.l2jmobius.util;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
+/**
+ * Encodes the values of dat files, little endian.<br>
+ * Each value can be written into a caller array at an offset, returning the offset after it, or into a new array of its own.
+ */
 public class ByteWriter
 {
-	private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
-	private static final Charset DEFAULT_CHARSET = StandardCharsets.US_ASCII;
 	private static final Charset UTF_16_LE_CHARSET = StandardCharsets.UTF_16LE;
+	/** The most bytes of a compact int. */
+	public static final int MAX_COMPACT_INT_SIZE = 5;
+	/** The count of bytes of a compact int by the count of significant bits of its absolute value. */
+	private static final byte[] COMPACT_INT_SIZES = new byte[33];
+	static
+	{
+		for (int bits = 0; bits <= 32; ++bits)
+		{
+			COMPACT_INT_SIZES[bits] = (byte) ((bits <= 6) ? 1 : (bits <= 13) ? 2 : (bits <= 20) ? 3 : (bits <= 27) ? 4 : 5);
+		}
+	}
 	
 	public static byte[] writeCompactInt(int count)
 	{
-		return compactIntToByteArray(count);
+		final byte[] result = new byte[getCompactIntSize(count)];
+		writeCompactInt(result, 0, count);
+		return result;
 	}
 	
 	public static byte[] writeByte(byte value)
@@ -47,13 +61,8 @@ public class ByteWriter
 	
 	public static byte[] writeInt(int value)
 	{
-		final byte[] result =
-		{
-			(byte) (value & 0xFF),
-			(byte) ((value & 0xFF00) >> 8),
-			(byte) ((value & 0xFF0000) >> 16),
-			(byte) ((value & 0xFF000000) >> 24)
-		};
+		final byte[] result = new byte[4];
+		writeInt(result, 0, value);
 		return result;
 	}
 	
@@ -64,11 +73,8 @@ public class ByteWriter
 	
 	public static byte[] writeShort(int value)
 	{
-		final byte[] result =
-		{
-			(byte) (value & 0xFF),
-			(byte) ((value & 0xFF00) >> 8)
-		};
+		final byte[] result = new byte[2];
+		writeShort(result, 0, value);
 		return result;
 	}
 	
@@ -79,123 +85,259 @@ public class ByteWriter
 	
 	public static byte[] writeRGB(String rgb)
 	{
-		final ByteBuffer buffer = ByteBuffer.allocate(3).order(ByteWriter.BYTE_ORDER);
-		buffer.put((byte) Integer.parseInt(rgb.substring(0, 2), 16));
-		buffer.put((byte) Integer.parseInt(rgb.substring(2, 4), 16));
-		buffer.put((byte) Integer.parseInt(rgb.substring(4, 6), 16));
-		return buffer.array();
+		final byte[] result = new byte[3];
+		writeRGB(result, 0, rgb);
+		return result;
 	}
 	
 	public static byte[] writeRGBA(String rgba)
 	{
-		final ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteWriter.BYTE_ORDER);
-		buffer.put(writeRGB(rgba.substring(0, 6)));
-		buffer.put((byte) Integer.parseInt(rgba.substring(6, 8), 16));
-		return buffer.array();
+		final byte[] result = new byte[4];
+		writeRGBA(result, 0, rgba);
+		return result;
 	}
 	
 	public static byte[] writeUtfString(String str, boolean isRaw)
 	{
-		int size = str.length();
-		if (size <= 0)
-		{
-			return ByteBuffer.allocate(4).order(ByteWriter.BYTE_ORDER).putInt(0).array();
-		}
-		
-		if (!isRaw)
-		{
-			str = checkAndReplaceNewLine(str);
-			size = str.length();
-		}
-		
-		final ByteBuffer buffer = ByteBuffer.allocate((size * 2) + 4).order(ByteWriter.BYTE_ORDER);
-		buffer.putInt(size * 2);
-		for (int i = 0; i < size; ++i)
-		{
-			buffer.putChar(str.charAt(i));
-		}
-		
-		return buffer.array();
+		final byte[] result = new byte[getMaxUtfStringSize(str)];
+		final int size = writeUtfString(result, 0, str, isRaw);
+		return (size == result.length) ? result : Arrays.copyOf(result, size);
 	}
 	
 	public static byte[] writeString(String s, boolean isRaw)
 	{
-		if ((s == null) || s.isEmpty())
+		final byte[] result = new byte[getMaxStringSize(s)];
+		final int size = writeString(result, 0, s, isRaw);
+		return (size == result.length) ? result : Arrays.copyOf(result, size);
+	}
+	
+	public static byte[] writeDouble(double value)
+	{
+		final byte[] result = new byte[8];
+		writeDouble(result, 0, value);
+		return result;
+	}
+	
+	public static byte[] writeFloat(float value)
+	{
+		final byte[] result = new byte[4];
+		writeFloat(result, 0, value);
+		return result;
+	}
+	
+	public static byte[] writeLong(long value)
+	{
+		final byte[] result = new byte[8];
+		writeLong(result, 0, value);
+		return result;
+	}
+	
+	public static int writeByte(byte[] buf, int offset, int value)
+	{
+		buf[offset] = (byte) value;
+		return offset + 1;
+	}
+	
+	public static int writeShort(byte[] buf, int offset, int value)
+	{
+		buf[offset] = (byte) value;
+		buf[offset + 1] = (byte) (value >> 8);
+		return offset + 2;
+	}
+	
+	public static int writeInt(byte[] buf, int offset, int value)
+	{
+		buf[offset] = (byte) value;
+		buf[offset + 1] = (byte) (value >> 8);
+		buf[offset + 2] = (byte) (value >> 16);
+		buf[offset + 3] = (byte) (value >> 24);
+		return offset + 4;
+	}
+	
+	public static int writeLong(byte[] buf, int offset, long value)
+	{
+		writeInt(buf, offset, (int) value);
+		return writeInt(buf, offset + 4, (int) (value >> 32));
+	}
+	
+	public static int writeFloat(byte[] buf, int offset, float value)
+	{
+		return writeInt(buf, offset, Float.floatToRawIntBits(value));
+	}
+	
+	public static int writeDouble(byte[] buf, int offset, double value)
+	{
+		return writeLong(buf, offset, Double.doubleToRawLongBits(value));
+	}
+	
+	/**
+	 * Nothing is written if the text is not a color.
+	 */
+	public static int writeRGB(byte[] buf, int offset, String rgb)
+	{
+		final int r = Integer.parseInt(rgb, 0, 2, 16);
+		final int g = Integer.parseInt(rgb, 2, 4, 16);
+		final int b = Integer.parseInt(rgb, 4, 6, 16);
+		buf[offset] = (byte) r;
+		buf[offset + 1] = (byte) g;
+		buf[offset + 2] = (byte) b;
+		return offset + 3;
+	}
+	
+	/**
+	 * Nothing is written if the text is not a color.
+	 */
+	public static int writeRGBA(byte[] buf, int offset, String rgba)
+	{
+		final int r = Integer.parseInt(rgba, 0, 2, 16);
+		final int g = Integer.parseInt(rgba, 2, 4, 16);
+		final int b = Integer.parseInt(rgba, 4, 6, 16);
+		final int a = Integer.parseInt(rgba, 6, 8, 16);
+		buf[offset] = (byte) r;
+		buf[offset + 1] = (byte) g;
+		buf[offset + 2] = (byte) b;
+		buf[offset + 3] = (byte) a;
+		return offset + 4;
+	}
+	
+	/**
+	 * @return the count of bytes of the value written as a compact int
+	 */
+	public static int getCompactIntSize(int value)
+	{
+		return COMPACT_INT_SIZES[32 - Integer.numberOfLeadingZeros(Math.abs(value))];
+	}
+	
+	/**
+	 * Writes the value in 6 bits, then 7 bits per byte, each byte flagging if another one follows. The first byte also holds the sign.
+	 */
+	public static int writeCompactInt(byte[] buf, int offset, int value)
+	{
+		final boolean negative = value < 0;
+		final int v = Math.abs(value);
+		final int size = COMPACT_INT_SIZES[32 - Integer.numberOfLeadingZeros(v)];
+		int b = v & 0x3F;
+		if (negative)
 		{
-			return writeCompactInt(0);
+			b |= 0x80;
 		}
-		
-		if (!isRaw)
+		if (size > 1)
 		{
-			s = checkAndReplaceNewLine(s);
+			b |= 0x40;
 		}
-		s += '\0';
-		
-		final boolean def = ByteWriter.DEFAULT_CHARSET.newEncoder().canEncode(s);
-		final byte[] bytes = s.getBytes(def ? ByteWriter.DEFAULT_CHARSET : ByteWriter.UTF_16_LE_CHARSET);
-		final byte[] bSize = compactIntToByteArray(def ? bytes.length : (-bytes.length / 2));
-		final ByteBuffer buffer = ByteBuffer.allocate(bytes.length + bSize.length).order(ByteWriter.BYTE_ORDER);
-		buffer.put(bSize);
-		buffer.put(bytes);
-		return buffer.array();
+		buf[offset] = (byte) b;
+		for (int i = 1, shift = 6; i < size; ++i, shift += 7)
+		{
+			b = (v >> shift) & 0x7F;
+			if (i < (size - 1))
+			{
+				b |= 0x80;
+			}
+			buf[offset + i] = (byte) b;
+		}
+		return offset + size;
 	}
 	
-	public static byte[] writeDouble(double value)
+	/**
+	 * @return the most bytes of the string written by {@link #writeUtfString(byte[], int, String, boolean)}
+	 */
+	public static int getMaxUtfStringSize(String str)
 	{
-		final ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteWriter.BYTE_ORDER);
-		buffer.putDouble(value);
-		return buffer.array();
+		return 4 + (str.length() * 2);
 	}
 	
-	public static byte[] writeFloat(float value)
+	/**
+	 * Writes the size in bytes, then the UTF-16 chars.
+	 * @param isRaw {@code false} to write the escaped new lines of the text as new lines
+	 */
+	public static int writeUtfString(byte[] buf, int offset, String str, boolean isRaw)
 	{
-		final ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteWriter.BYTE_ORDER);
-		buffer.putFloat(value);
-		return buffer.array();
+		if (!isRaw)
+		{
+			str = checkAndReplaceNewLine(str);
+		}
+		
+		final int size = str.length();
+		offset = writeInt(buf, offset, size * 2);
+		for (int i = 0; i < size; ++i)
+		{
+			final char c = str.charAt(i);
+			buf[offset] = (byte) c;
+			buf[offset + 1] = (byte) (c >> 8);
+			offset += 2;
+		}
+		return offset;
 	}
 	
-	public static byte[] writeLong(long value)
+	/**
+	 * @return the most bytes of the string written by {@link #writeString(byte[], int, String, boolean)}
+	 */
+	public static int getMaxStringSize(String s)
 	{
-		final ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteWriter.BYTE_ORDER);
-		buffer.putLong(value);
-		return buffer.array();
+		return (s == null) ? 1 : MAX_COMPACT_INT_SIZE + ((s.length() + 1) * 2);
 	}
 	
-	private static byte[] compactIntToByteArray(int v)
+	/**
+	 * Writes the count of chars as a compact int, negative for UTF-16, then the chars followed by a zero char.<br>
+	 * A string holding only ASCII chars is written with one byte per char.
+	 * @param isRaw {@code false} to write the escaped new lines of the text as new lines
+	 */
+	public static int writeString(byte[] buf, int offset, String s, boolean isRaw)
 	{
-		final boolean negative = v < 0;
-		v = Math.abs(v);
-		final int[] bytes =
+		if ((s == null) || s.isEmpty())
 		{
-			v & 0x3F,
-			(v >> 6) & 0x7F,
-			(v >> 13) & 0x7F,
-			(v >> 20) & 0x7F,
-			(v >> 27) & 0x7F
-		};
+			return writeCompactInt(buf, offset, 0);
+		}
 		
-		if (negative)
+		if (!isRaw)
 		{
-			bytes[0] |= 0x80;
+			s = checkAndReplaceNewLine(s);
 		}
 		
-		int size = 5;
-		for (int i = 4; (i > 0) && (bytes[i] == 0); --i)
+		final int length = s.length();
+		boolean ascii = true;
+		boolean surrogate = false;
+		for (int i = 0; i < length; ++i)
 		{
-			--size;
+			final char c = s.charAt(i);
+			if (c >= 0x80)
+			{
+				ascii = false;
+				surrogate |= Character.isSurrogate(c);
+			}
 		}
 		
-		final byte[] res = new byte[size];
-		for (int j = 0; j < size; ++j)
+		if (ascii)
 		{
-			if (j != (size - 1))
+			offset = writeCompactInt(buf, offset, length + 1);
+			for (int i = 0; i < length; ++i)
 			{
-				bytes[j] |= ((j == 0) ? 64 : 128);
+				buf[offset++] = (byte) s.charAt(i);
 			}
-			res[j] = (byte) bytes[j];
+			buf[offset] = 0;
+			return offset + 1;
+		}
+		
+		if (surrogate)
+		{
+			// The charset replaces the surrogates without a pair.
+			final byte[] bytes = (s + '\0').getBytes(UTF_16_LE_CHARSET);
+			offset = writeCompactInt(buf, offset, -bytes.length / 2);
+			System.arraycopy(bytes, 0, buf, offset, bytes.length);
+			return offset + bytes.length;
 		}
 		
-		return res;
+		offset = writeCompactInt(buf, offset, -(length + 1));
+		for (int i = 0; i < length; ++i)
+		{
+			final char c = s.charAt(i);
+			buf[offset] = (byte) c;
+			buf[offset + 1] = (byte) (c >> 8);
+			offset += 2;
+		}
+		buf[offset] = 0;
+		buf[offset + 1] = 0;
+		return offset + 2;
 	}
 	
 	private static String checkAndReplaceNewLine(String str)
@@ -0,0 +1,211 @@
+/*
+ * This file is part of the L2ClientDat project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.l2jmobius.util;
+
+/**
+ * Writes and reads the decimal text of the floating point values of dat files without BigDecimal.
+ */
+public class DecimalUtil
+{
+	/** The powers of ten held exactly by a double. */
+	private static final double[] DOUBLE_POWERS =
+	{
+		1e0,
+		1e1,
+		1e2,
+		1e3,
+		1e4,
+		1e5,
+		1e6,
+		1e7,
+		1e8,
+		1e9,
+		1e10,
+		1e11,
+		1e12,
+		1e13,
+		1e14,
+		1e15,
+		1e16,
+		1e17,
+		1e18,
+		1e19,
+		1e20,
+		1e21,
+		1e22
+	};
+	/** The powers of ten held exactly by a float. */
+	private static final float[] FLOAT_POWERS =
+	{
+		1e0f,
+		1e1f,
+		1e2f,
+		1e3f,
+		1e4f,
+		1e5f,
+		1e6f,
+		1e7f,
+		1e8f,
+		1e9f,
+		1e10f
+	};
+	/** Integers up to 15 digits are held exactly by a double. */
+	private static final int DOUBLE_MAX_DIGITS = 15;
+	/** Integers up to 7 digits are held exactly by a float. */
+	private static final int FLOAT_MAX_DIGITS = 7;
+	
+	/**
+	 * Appends the text of {@code new BigDecimal(Double.toString(value)).toPlainString()}: the shortest digits of the value, without exponent.<br>
+	 * The digits are written by the builder itself, then its scientific notation is rewritten in place.
+	 * @throws NumberFormatException if the value is not finite, as BigDecimal does
+	 */
+	public static void appendPlain(StringBuilder out, double value)
+	{
+		if (!Double.isFinite(value))
+		{
+			throw new NumberFormatException("Character " + value + " is neither a decimal digit number, decimal point, nor \"e\" notation exponential mark.");
+		}
+		
+		// BigDecimal has no negative zero.
+		if (value == 0)
+		{
+			out.append("0.0");
+			return;
+		}
+		
+		final int start = out.length();
+		out.append(value);
+		int e = start;
+		final int end = out.length();
+		while ((e < end) && (out.charAt(e) != 'E'))
+		{
+			++e;
+		}
+		
+		if (e == end)
+		{
+			return;
+		}
+		
+		final int exponent = Integer.parseInt(out, e + 1, end, 10);
+		final int first = (out.charAt(start) == '-') ? start + 1 : start;
+		final int fraction = e - first - 2;
+		out.setLength(e);
+		out.deleteCharAt(first + 1);
+		
+		// The digits form the unscaled value of the BigDecimal, the scale is the count of digits after the point.
+		final int digits = fraction + 1;
+		final int scale = fraction - exponent;
+		if (scale <= 0)
+		{
+			for (int i = scale; i < 0; ++i)
+			{
+				out.append('0');
+			}
+		}
+		else if (scale < digits)
+		{
+			out.insert(first + (digits - scale), '.');
+		}
+		else
+		{
+			final int zeros = scale - digits;
+			out.insert(first, "0.");
+			for (int i = 0; i < zeros; ++i)
+			{
+				out.insert(first + 2, '0');
+			}
+		}
+	}
+	
+	/**
+	 * @return the same value as {@link Double#parseDouble(String)}, plain decimals of a few digits are read without it
+	 * @throws NumberFormatException if the text is not a number
+	 */
+	public static double parseDouble(String text)
+	{
+		final long mantissa = parseMantissa(text, DOUBLE_MAX_DIGITS, DOUBLE_POWERS.length - 1);
+		if (mantissa < 0)
+		{
+			return Double.parseDouble(text);
+		}
+		
+		// Both operands are exact, so the single division is correctly rounded.
+		final double value = (mantissa >>> 8) / DOUBLE_POWERS[(int) (mantissa & 0xFF)];
+		return (text.charAt(0) == '-') ? -value : value;
+	}
+	
+	/**
+	 * @return the same value as {@link Float#parseFloat(String)}, plain decimals of a few digits are read without it
+	 * @throws NumberFormatException if the text is not a number
+	 */
+	public static float parseFloat(String text)
+	{
+		final long mantissa = parseMantissa(text, FLOAT_MAX_DIGITS, FLOAT_POWERS.length - 1);
+		if (mantissa < 0)
+		{
+			return Float.parseFloat(text);
+		}
+		
+		final float value = (mantissa >>> 8) / FLOAT_POWERS[(int) (mantissa & 0xFF)];
+		return (text.charAt(0) == '-') ? -value : value;
+	}
+	
+	/**
+	 * Reads a text of the form {@code [-]digits[.digits]}.
+	 * @param maxDigits the most significant digits read
+	 * @param maxScale the most digits after the point
+	 * @return the digits as an integer shifted by 8 bits with the count of digits after the point, or -1 if the text is not of that form
+	 */
+	private static long parseMantissa(String text, int maxDigits, int maxScale)
+	{
+		final int length = text.length();
+		int i = ((length > 0) && (text.charAt(0) == '-')) ? 1 : 0;
+		long mantissa = 0;
+		int digits = 0;
+		int significant = 0;
+		int point = -1;
+		for (; i < length; ++i)
+		{
+			final char c = text.charAt(i);
+			if ((c >= '0') && (c <= '9'))
+			{
+				mantissa = (mantissa * 10) + (c - '0');
+				++digits;
+				if ((mantissa != 0) && (++significant > maxDigits))
+				{
+					return -1;
+				}
+			}
+			else if ((c == '.') && (point < 0))
+			{
+				point = digits;
+			}
+			else
+			{
+				return -1;
+			}
+		}
+		
+		final int scale = (point < 0) ? 0 : digits - point;
+		if ((digits == 0) || (scale > maxScale))
+		{
+			return -1;
+		}
+		return (mantissa << 8) | scale;
+	}
+}
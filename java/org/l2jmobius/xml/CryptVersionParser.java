@@ -17,7 +17,11 @@
 package org.l2jmobius.xml;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -39,6 +43,7 @@ public class CryptVersionParser
 	
 	private final Map<String, DatCrypter> _encryptKeys = new LinkedHashMap<>();
 	private final Map<String, DatCrypter> _decryptKeys = new LinkedHashMap<>();
+	private final Map<Integer, List<DatCrypter>> _decryptKeysByCode = new HashMap<>();
 	
 	public CryptVersionParser()
 	{
@@ -104,6 +109,7 @@ public class CryptVersionParser
 									if (isDecrypt)
 									{
 										_decryptKeys.put(name, dat);
+										_decryptKeysByCode.computeIfAbsent(code, k -> new ArrayList<>()).add(dat);
 									}
 									else
 									{
@@ -142,6 +148,15 @@ public class CryptVersionParser
 		return _decryptKeys.get(s);
 	}
 	
+	/**
+	 * @param code the crypt code of a dat file header
+	 * @return the decrypt keys of this code, in the order of the configuration
+	 */
+	public List<DatCrypter> getDecryptKeys(int code)
+	{
+		return _decryptKeysByCode.getOrDefault(code, Collections.emptyList());
+	}
+	
 	public static CryptVersionParser getInstance()
 	{
 		return SingletonHolder.INSTANCE;
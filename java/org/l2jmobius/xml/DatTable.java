@@ -0,0 +1,166 @@
+/*
+ * This file is part of the L2ClientDat project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.l2jmobius.xml;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.l2jmobius.clientcryptor.crypt.DatCrypter;
+import org.l2jmobius.util.Util;
+import org.l2jmobius.xml.DescriptorPlan.Block;
+import org.l2jmobius.xml.DescriptorPlan.Instruction;
+
+/**
+ * A random access view over the records of the first top-level cycle of decrypted data.<br>
+ * The records are indexed by a single pass skipping their values, then each record is only decoded when asked for.<br>
+ * The variables are kept every {@link #CHECKPOINT_INTERVAL} records, as a record may depend on the values of the records before it.<br>
+ * The view does not change the data and can be read from several threads.
+ */
+public final class DatTable
+{
+	private static final int CHECKPOINT_INTERVAL = 64;
+	
+	private final File _file;
+	private final DatCrypter _crypter;
+	private final ByteBuffer _data;
+	private final DescriptorPlan _plan;
+	private final Block _block;
+	private final String _name;
+	private final int _size;
+	/** The data position of each record, followed by the end of the last record. */
+	private final int[] _offsets;
+	/** The variables when each checkpoint record starts. */
+	private final VariableFrame[] _checkpoints;
+	
+	/**
+	 * @param file the dat file, used to resolve the names of L2GameDataName
+	 * @param crypter the crypter of the dat file
+	 * @param desc the descriptor of the data
+	 * @param data the decrypted data, read from its position
+	 * @throws Exception if the descriptor has no top-level cycle or the data does not match it
+	 */
+	public DatTable(File file, DatCrypter crypter, Descriptor desc, ByteBuffer data) throws Exception
+	{
+		if (desc.isRawData())
+		{
+			throw new Exception("Raw data of " + file.getName() + " has no records.");
+		}
+		
+		_file = file;
+		_crypter = crypter;
+		_data = data.duplicate();
+		_plan = desc.getPlan();
+		
+		final Instruction[] instructions = _plan.getInstructions();
+		final Block root = _plan.getRoot();
+		final VariableFrame vars = new VariableFrame(_plan.getSlotCount());
+		Instruction cycle = null;
+		for (int pc = root.start; pc < root.end; ++pc)
+		{
+			final Instruction ins = instructions[pc];
+			if (ins.opcode == DescriptorPlan.CYCLE)
+			{
+				cycle = ins;
+				break;
+			}
+			DescriptorReader.skipInstruction(instructions, ins, vars, _data);
+		}
+		
+		if (cycle == null)
+		{
+			throw new Exception("Descriptor " + desc.getAlias() + " of " + file.getName() + " has no top-level cycle.");
+		}
+		
+		_block = cycle.block;
+		_name = cycle.node.getName();
+		_size = DescriptorReader.getCycleSize(cycle, vars);
+		_offsets = new int[_size + 1];
+		_checkpoints = new VariableFrame[((_size + CHECKPOINT_INTERVAL) - 1) / CHECKPOINT_INTERVAL];
+		for (int i = 0; i < _size; ++i)
+		{
+			if ((i % CHECKPOINT_INTERVAL) == 0)
+			{
+				_checkpoints[i / CHECKPOINT_INTERVAL] = vars.copy();
+			}
+			_offsets[i] = _data.position();
+			DescriptorReader.skipIteration(instructions, _block, vars, _data);
+		}
+		_offsets[_size] = _data.position();
+	}
+	
+	/**
+	 * @return the name of the indexed cycle
+	 */
+	public String getName()
+	{
+		return _name;
+	}
+	
+	/**
+	 * @return the count of records
+	 */
+	public int size()
+	{
+		return _size;
+	}
+	
+	/**
+	 * @param index the index of a record
+	 * @return the count of bytes of the record
+	 */
+	public int getDataSize(int index)
+	{
+		return _offsets[index + 1] - _offsets[index];
+	}
+	
+	/**
+	 * @param index the index of a record
+	 * @return the text of the record as it is unpacked, or {@code null} if it cannot be decoded
+	 * @throws Exception
+	 */
+	public String getText(int index) throws Exception
+	{
+		if ((index < 0) || (index >= _size))
+		{
+			throw new IndexOutOfBoundsException("Record " + index + " out of " + _size + ".");
+		}
+		
+		final int checkpoint = index - (index % CHECKPOINT_INTERVAL);
+		final VariableFrame vars = _checkpoints[checkpoint / CHECKPOINT_INTERVAL].copy();
+		final ByteBuffer data = _data.duplicate();
+		data.position(_offsets[checkpoint]);
+		final Instruction[] instructions = _plan.getInstructions();
+		for (int i = checkpoint; i < index; ++i)
+		{
+			DescriptorReader.skipIteration(instructions, _block, vars, data);
+		}
+		return DescriptorReader.getInstance().readRecord(_file, _crypter, data, _plan, _block, index, _size, vars);
+	}
+	
+	/**
+	 * The values of the record by name, split as they are packed. The values of hidden names are not kept.
+	 * @param index the index of a record
+	 * @return the values of the record, or {@code null} if it cannot be decoded
+	 * @throws Exception
+	 */
+	public Map<String, String> getFields(int index) throws Exception
+	{
+		final String text = getText(index);
+		return (text != null) ? Util.stringToMap(text) : null;
+	}
+}
@@ -0,0 +1,601 @@
+/*
+ * This file is part of the L2ClientDat project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.l2jmobius.xml;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.l2jmobius.compiler.Compiler;
+import org.l2jmobius.xml.DescriptorPlan.Block;
+import org.l2jmobius.xml.DescriptorPlan.Instruction;
+
+/**
+ * Writes the plan of a descriptor as the java source of a {@link GeneratedDecoder}, then compiles it in memory.<br>
+ * Each block becomes a method looping over its iterations, and each node straight-line code reading its value.<br>
+ * Only the variables read by conditions and cycles are kept, as typed fields.
+ */
+final class DecoderGenerator
+{
+	private static final Logger LOGGER = Logger.getLogger(DecoderGenerator.class.getName());
+	
+	/** Count of nodes per method, so the methods stay small enough to be compiled by the JIT. */
+	private static final int CHUNK_SIZE = 32;
+	private static final String OBJECT = "Object";
+	
+	private final DescriptorPlan _plan;
+	private final Instruction[] _instructions;
+	private final String[] _slotTypes;
+	private final boolean[] _slotUsed;
+	private final List<ParamNode> _nodes = new ArrayList<>();
+	private final Map<Block, String> _blockNames = new LinkedHashMap<>();
+	private final StringBuilder _src = new StringBuilder();
+	
+	private DecoderGenerator(DescriptorPlan plan)
+	{
+		_plan = plan;
+		_instructions = plan.getInstructions();
+		_slotTypes = new String[plan.getSlotCount()];
+		_slotUsed = new boolean[plan.getSlotCount()];
+		for (Instruction ins : _instructions)
+		{
+			if (ins.opcode == DescriptorPlan.VARIABLE)
+			{
+				// Names of the game data are stored instead of their index when they are replaced.
+				final String type = (ins.node.getType() == ParamType.MAP_INT) ? OBJECT : getJavaType(ins.node.getType());
+				if (_slotTypes[ins.slot] == null)
+				{
+					_slotTypes[ins.slot] = type;
+				}
+				else if (!_slotTypes[ins.slot].equals(type))
+				{
+					_slotTypes[ins.slot] = OBJECT;
+				}
+			}
+			else if ((ins.opcode != DescriptorPlan.CONSTANT) && (ins.opcode != DescriptorPlan.WRAPPER) && (ins.slot >= 0))
+			{
+				_slotUsed[ins.slot] = true;
+			}
+		}
+	}
+	
+	/**
+	 * @param desc the descriptor
+	 * @return the factory of the decoders of the descriptor, or {@code null} if the generated source does not compile
+	 */
+	static Factory generate(Descriptor desc)
+	{
+		final String className = ("Decoder_" + desc.getAlias() + "_" + desc.getFilePattern()).replaceAll("\\W", "_");
+		final DecoderGenerator generator = new DecoderGenerator(desc.getPlan());
+		final String source = generator.generate(className);
+		try
+		{
+			final Compiler compiler = new Compiler();
+			if (!compiler.compile(className, source))
+			{
+				LOGGER.log(Level.WARNING, "Cannot compile the decoder of " + desc.getAlias() + " " + desc.getFilePattern() + ".");
+				return null;
+			}
+			
+			final Class<? extends GeneratedDecoder> decoderClass = compiler.getClassLoader().loadClass(className).asSubclass(GeneratedDecoder.class);
+			return new Factory(decoderClass.getDeclaredConstructor(), generator._nodes.toArray(new ParamNode[generator._nodes.size()]));
+		}
+		catch (Exception e)
+		{
+			LOGGER.log(Level.WARNING, "Cannot load the decoder of " + desc.getAlias() + " " + desc.getFilePattern() + ".", e);
+			return null;
+		}
+	}
+	
+	private String generate(String className)
+	{
+		_src.append("import java.nio.ByteBuffer;\n");
+		_src.append("import org.l2jmobius.config.ConfigDebug;\n");
+		_src.append("import org.l2jmobius.util.ByteReader;\n");
+		_src.append("import org.l2jmobius.util.DecimalUtil;\n");
+		_src.append("import org.l2jmobius.xml.GeneratedDecoder;\n\n");
+		_src.append("public final class ").append(className).append(" extends GeneratedDecoder\n{\n");
+		for (int slot = 0; slot < _slotUsed.length; ++slot)
+		{
+			if (_slotUsed[slot])
+			{
+				_src.append("\tprivate ").append(_slotTypes[slot] != null ? _slotTypes[slot] : OBJECT).append(" v").append(slot).append(";\n");
+				_src.append("\tprivate boolean s").append(slot).append(";\n");
+			}
+		}
+		
+		_src.append("\n\t@Override\n\tprotected boolean decode(ByteBuffer data, StringBuilder out) throws Exception\n\t{\n");
+		_blockNames.put(_plan.getRoot(), "b0");
+		for (Instruction ins : _instructions)
+		{
+			if (ins.block != null)
+			{
+				_blockNames.put(ins.block, "b" + _blockNames.size());
+			}
+		}
+		
+		_src.append("\t\treturn b0(data, out, 1);\n\t}\n");
+		for (Block block : _blockNames.keySet())
+		{
+			writeBlock(block);
+		}
+		_src.append("}\n");
+		return _src.toString();
+	}
+	
+	private void writeBlock(Block block)
+	{
+		final String name = _blockNames.get(block);
+		_src.append("\n\tprivate boolean ").append(name).append("(ByteBuffer data, StringBuilder out, int cycleSize) throws Exception\n\t{\n");
+		_src.append("\t\tfinal int outStart = out.length();\n");
+		_src.append("\t\tfor (int i = 0; i < cycleSize; ++i)\n\t\t{\n");
+		if (block.depth <= 1)
+		{
+			_src.append("\t\t\tif (i > 0)\n\t\t\t{\n\t\t\t\tcheckpoint();\n\t\t\t}\n");
+		}
+		if (block.beginText != null)
+		{
+			_src.append("\t\t\tout.append(").append(literal(block.beginText)).append(");\n");
+		}
+		if (block.braces)
+		{
+			_src.append("\t\t\tout.append('{');\n");
+		}
+		
+		_src.append("\t\t\tfinal boolean ok = ");
+		if (block.start == block.end)
+		{
+			_src.append("true");
+		}
+		for (int chunk = block.start; chunk < block.end; chunk += CHUNK_SIZE)
+		{
+			_src.append((chunk > block.start) ? " && " : "").append(name).append('_').append(chunk - block.start).append("(data, out, outStart)");
+		}
+		_src.append(";\n");
+		
+		if (block.isNameHidden)
+		{
+			if (block.braces)
+			{
+				_src.append("\t\t\tout.append('}');\n");
+			}
+			_src.append("\t\t\tif (i < (cycleSize - 1))\n\t\t\t{\n\t\t\t\tout.append(';');\n\t\t\t}\n");
+		}
+		if (block.endText != null)
+		{
+			_src.append("\t\t\tif (out.charAt(out.length() - 1) != '\\n')\n\t\t\t{\n\t\t\t\tout.append('\\t');\n\t\t\t}\n");
+			_src.append("\t\t\tout.append(").append(literal(block.endText)).append(");\n");
+		}
+		_src.append("\t\t\tif (!ok)\n\t\t\t{\n\t\t\t\treturn false;\n\t\t\t}\n");
+		_src.append("\t\t}\n\t\treturn true;\n\t}\n");
+		
+		for (int chunk = block.start; chunk < block.end; chunk += CHUNK_SIZE)
+		{
+			_src.append("\n\tprivate boolean ").append(name).append('_').append(chunk - block.start).append("(ByteBuffer data, StringBuilder out, int outStart) throws Exception\n\t{\n");
+			for (int pc = chunk; pc < Math.min(block.end, chunk + CHUNK_SIZE); ++pc)
+			{
+				writeInstruction(_instructions[pc]);
+			}
+			_src.append("\t\treturn true;\n\t}\n");
+		}
+	}
+	
+	private void writeInstruction(Instruction ins)
+	{
+		final int node = _nodes.size();
+		_nodes.add(ins.node);
+		_src.append("\t\t// ").append(ins.node.getName().replaceAll("[^\\w.-]", "_")).append('\n');
+		if (ins.prefix != null)
+		{
+			_src.append("\t\tout.append(").append(literal(ins.prefix)).append(");\n");
+		}
+		
+		switch (ins.opcode)
+		{
+			case DescriptorPlan.VARIABLE:
+			{
+				writeVariable(ins, node);
+				break;
+			}
+			case DescriptorPlan.CONSTANT:
+			{
+				_src.append("\t\tout.append(").append(literal(ins.text)).append(");\n");
+				break;
+			}
+			case DescriptorPlan.IF:
+			case DescriptorPlan.ELSE:
+			case DescriptorPlan.MASK:
+			{
+				final String condition = getCondition(ins);
+				if (condition != null)
+				{
+					_src.append("\t\tif (").append(condition).append(" && !").append(_blockNames.get(ins.block)).append("(data, out, 1))\n\t\t{\n\t\t\treturn false;\n\t\t}\n");
+				}
+				break;
+			}
+			case DescriptorPlan.WRAPPER:
+			{
+				_src.append("\t\tif (!").append(_blockNames.get(ins.block)).append("(data, out, 1))\n\t\t{\n\t\t\treturn false;\n\t\t}\n");
+				break;
+			}
+			case DescriptorPlan.CYCLE:
+			{
+				_src.append("\t\t{\n\t\t\tfinal int size = ").append(getCycleSize(ins, node)).append(";\n");
+				_src.append("\t\t\tif (size > 1000000)\n\t\t\t{\n\t\t\t\tthrow new Exception(\"To much data.\");\n\t\t\t}\n");
+				if (ins.node.isNameHidden())
+				{
+					_src.append("\t\t\tout.append('{');\n");
+				}
+				_src.append("\t\t\tif ((size > 0) && !").append(_blockNames.get(ins.block)).append("(data, out, size))\n\t\t\t{\n\t\t\t\treturn false;\n\t\t\t}\n");
+				if (ins.node.isNameHidden())
+				{
+					_src.append("\t\t\tout.append('}');\n");
+				}
+				_src.append("\t\t}\n");
+				break;
+			}
+		}
+		
+		if (ins.suffix != null)
+		{
+			_src.append("\t\tout.append(").append(literal(ins.suffix)).append(");\n");
+		}
+	}
+	
+	private void writeVariable(Instruction ins, int node)
+	{
+		final ParamNode paramNode = ins.node;
+		final ParamType type = paramNode.getType();
+		final String read = getRead(type);
+		if (read == null)
+		{
+			_src.append("\t\tfail(").append(node).append(", out, outStart);\n\t\treturn false;\n");
+			return;
+		}
+		
+		final boolean emit = !paramNode.isIterator();
+		final String store = _slotUsed[ins.slot] ? "\t\t\tv" + ins.slot + " = x;\n\t\t\ts" + ins.slot + " = true;\n" : "";
+		_src.append("\t\ttry\n\t\t{\n");
+		_src.append("\t\t\tfinal ").append(getJavaType(type)).append(" x = ").append(read).append(";\n");
+		if (type == ParamType.MAP_INT)
+		{
+			_src.append("\t\t\tif (ConfigDebug.DAT_REPLACEMENT_NAMES)\n\t\t\t{\n");
+			_src.append("\t\t\t\tfinal String name = getName(x);\n");
+			if (emit)
+			{
+				_src.append("\t\t\t\tout.append(name);\n");
+			}
+			if (_slotUsed[ins.slot])
+			{
+				_src.append("\t\t\t\tv").append(ins.slot).append(" = name;\n\t\t\t\ts").append(ins.slot).append(" = true;\n");
+			}
+			_src.append("\t\t\t}\n\t\t\telse\n\t\t\t{\n");
+			if (emit)
+			{
+				_src.append("\t\t\t\tout.append(x);\n");
+			}
+			if (_slotUsed[ins.slot])
+			{
+				_src.append("\t\t\t\tv").append(ins.slot).append(" = x;\n\t\t\t\ts").append(ins.slot).append(" = true;\n");
+			}
+			_src.append("\t\t\t}\n");
+		}
+		else
+		{
+			if (emit)
+			{
+				writeEmit(paramNode, node, type);
+			}
+			_src.append(store);
+		}
+		_src.append("\t\t}\n\t\tcatch (Exception e)\n\t\t{\n\t\t\tfail(").append(node).append(", out, outStart);\n\t\t\treturn false;\n\t\t}\n");
+	}
+	
+	private void writeEmit(ParamNode paramNode, int node, ParamType type)
+	{
+		switch (type)
+		{
+			case UCHAR:
+			case UBYTE:
+			case SHORT:
+			case USHORT:
+			case UINT:
+			case INT:
+			case CNTR:
+			{
+				if (paramNode.isEnum())
+				{
+					_src.append("\t\t\tif (ConfigDebug.DAT_REPLACEMENT_ENUMS)\n\t\t\t{\n\t\t\t\tappendEnumName(out, ").append(node).append(", x);\n\t\t\t}\n");
+					_src.append("\t\t\telse\n\t\t\t{\n\t\t\t\tout.append(x);\n\t\t\t}\n");
+				}
+				else
+				{
+					_src.append("\t\t\tout.append(x);\n");
+				}
+				break;
+			}
+			case UNICODE:
+			case ASCF:
+			{
+				_src.append("\t\t\tout.append('[').append(x).append(']');\n");
+				break;
+			}
+			case DOUBLE:
+			{
+				_src.append("\t\t\tDecimalUtil.appendPlain(out, x);\n");
+				break;
+			}
+			case HEX:
+			{
+				_src.append("\t\t\tout.append(toHex(x));\n");
+				break;
+			}
+			default:
+			{
+				_src.append("\t\t\tout.append(x);\n");
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * @return the code of the condition of an if, else or mask node, or {@code null} if it is never met
+	 */
+	private String getCondition(Instruction ins)
+	{
+		if (ins.slot < 0)
+		{
+			return null;
+		}
+		
+		final String type = (_slotTypes[ins.slot] != null) ? _slotTypes[ins.slot] : OBJECT;
+		final String value = "v" + ins.slot;
+		final String isSet = "s" + ins.slot;
+		final boolean isInteger = type.equals("int") || type.equals("short");
+		if (ins.opcode == DescriptorPlan.MASK)
+		{
+			final int mask = ins.node.getValMask();
+			return isSet + " && ((" + (isInteger ? value : "Integer.parseInt(String.valueOf(" + value + "))") + " & " + mask + ") == " + mask + ")";
+		}
+		
+		final String equals;
+		if (isInteger)
+		{
+			// An integer equals the text only if the text is its canonical form.
+			equals = ins.isNumber ? "(" + value + " == " + ins.number + ")" : "false";
+		}
+		else if (type.equals("String"))
+		{
+			equals = value + ".equalsIgnoreCase(" + literal(ins.text) + ")";
+		}
+		else
+		{
+			equals = "String.valueOf(" + value + ").equalsIgnoreCase(" + literal(ins.text) + ")";
+		}
+		
+		if (ins.opcode == DescriptorPlan.IF)
+		{
+			return equals.equals("false") ? null : isSet + " && " + equals;
+		}
+		return equals.equals("false") ? isSet : isSet + " && !" + equals;
+	}
+	
+	private String getCycleSize(Instruction ins, int node)
+	{
+		if (ins.node.getSize() >= 0)
+		{
+			return String.valueOf(ins.node.getSize());
+		}
+		
+		if (ins.slot < 0)
+		{
+			return "getCycleSize(null, " + node + ")";
+		}
+		
+		final String type = (_slotTypes[ins.slot] != null) ? _slotTypes[ins.slot] : OBJECT;
+		if (type.equals("int") || type.equals("short"))
+		{
+			return "s" + ins.slot + " ? v" + ins.slot + " : getCycleSize(null, " + node + ")";
+		}
+		return "getCycleSize(" + (type.equals(OBJECT) ? "v" + ins.slot : "null") + ", " + node + ")";
+	}
+	
+	private static String getRead(ParamType type)
+	{
+		switch (type)
+		{
+			case UCHAR:
+			{
+				return "(byte) ByteReader.readChar(data)";
+			}
+			case UBYTE:
+			case HEX:
+			{
+				return "ByteReader.readUByte(data)";
+			}
+			case SHORT:
+			{
+				return "ByteReader.readShort(data)";
+			}
+			case USHORT:
+			{
+				return "ByteReader.readShort(data) & 0xFFFF";
+			}
+			case UINT:
+			case MAP_INT:
+			{
+				return "ByteReader.readUInt(data)";
+			}
+			case INT:
+			{
+				return "ByteReader.readInt(data)";
+			}
+			case CNTR:
+			{
+				return "ByteReader.readCompactInt(data)";
+			}
+			case UNICODE:
+			{
+				return "ByteReader.readUtfString(data, false)";
+			}
+			case ASCF:
+			{
+				return "ByteReader.readString(data, false)";
+			}
+			case DOUBLE:
+			{
+				return "ByteReader.readDouble(data)";
+			}
+			case FLOAT:
+			{
+				return "ByteReader.readFloat(data)";
+			}
+			case LONG:
+			{
+				return "ByteReader.readLong(data)";
+			}
+			case RGBA:
+			{
+				return "ByteReader.readRGBA(data)";
+			}
+			case RGB:
+			{
+				return "ByteReader.readRGB(data)";
+			}
+			default:
+			{
+				return null;
+			}
+		}
+	}
+	
+	/**
+	 * @return the java type of the value read for a type, which is also the type stored by the interpreter
+	 */
+	private static String getJavaType(ParamType type)
+	{
+		switch (type)
+		{
+			case UCHAR:
+			case SHORT:
+			{
+				return "short";
+			}
+			case UBYTE:
+			case USHORT:
+			case UINT:
+			case INT:
+			case CNTR:
+			case HEX:
+			case MAP_INT:
+			{
+				return "int";
+			}
+			case DOUBLE:
+			{
+				return "double";
+			}
+			case FLOAT:
+			{
+				return "float";
+			}
+			case LONG:
+			{
+				return "long";
+			}
+			default:
+			{
+				return "String";
+			}
+		}
+	}
+	
+	static String literal(String text)
+	{
+		final StringBuilder sb = new StringBuilder(text.length() + 2).append('"');
+		for (int i = 0; i < text.length(); ++i)
+		{
+			final char c = text.charAt(i);
+			switch (c)
+			{
+				case '"':
+				case '\\':
+				{
+					sb.append('\\').append(c);
+					break;
+				}
+				case '\t':
+				{
+					sb.append("\\t");
+					break;
+				}
+				case '\r':
+				{
+					sb.append("\\r");
+					break;
+				}
+				case '\n':
+				{
+					sb.append("\\n");
+					break;
+				}
+				default:
+				{
+					if ((c < 0x20) || (c > 0x7E))
+					{
+						sb.append(String.format("\\u%04x", (int) c));
+					}
+					else
+					{
+						sb.append(c);
+					}
+					break;
+				}
+			}
+		}
+		return sb.append('"').toString();
+	}
+	
+	/**
+	 * Creates the decoders of a generated class, one per decoded file.
+	 */
+	static final class Factory
+	{
+		private final Constructor<? extends GeneratedDecoder> _constructor;
+		private final ParamNode[] _nodes;
+		
+		Factory(Constructor<? extends GeneratedDecoder> constructor, ParamNode[] nodes)
+		{
+			_constructor = constructor;
+			_nodes = nodes;
+		}
+		
+		ParamNode[] getNodes()
+		{
+			return _nodes;
+		}
+		
+		GeneratedDecoder newDecoder() throws Exception
+		{
+			return _constructor.newInstance();
+		}
+	}
+}
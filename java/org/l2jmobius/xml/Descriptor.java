@@ -25,15 +25,21 @@ public class Descriptor
 	private final String _alias;
 	private final String _filePattern;
 	private final List<ParamNode> _nodes;
+	private final DescriptorPlan _plan;
 	private boolean _isRawData;
 	private boolean _isSafePackage;
 	private FormatListener _format;
+	private DecoderGenerator.Factory _decoderFactory;
+	private boolean _isDecoderGenerated;
+	private EncoderGenerator.Factory _encoderFactory;
+	private boolean _isEncoderGenerated;
 	
 	Descriptor(String alias, String filePattern, List<ParamNode> nodes)
 	{
 		_alias = alias;
 		_filePattern = filePattern;
 		_nodes = nodes;
+		_plan = new DescriptorPlan(nodes);
 		_isRawData = false;
 	}
 	
@@ -72,6 +78,39 @@ public class Descriptor
 		return _nodes;
 	}
 	
+	DescriptorPlan getPlan()
+	{
+		return _plan;
+	}
+	
+	/**
+	 * The decoder is generated on first use, a failed generation is not retried.
+	 * @return the factory of the generated decoders, or {@code null} if it cannot be generated
+	 */
+	synchronized DecoderGenerator.Factory getDecoderFactory()
+	{
+		if (!_isDecoderGenerated)
+		{
+			_isDecoderGenerated = true;
+			_decoderFactory = DecoderGenerator.generate(this);
+		}
+		return _decoderFactory;
+	}
+	
+	/**
+	 * The encoder is generated on first use, a failed generation is not retried.
+	 * @return the factory of the generated encoders, or {@code null} if it cannot be generated
+	 */
+	synchronized EncoderGenerator.Factory getEncoderFactory()
+	{
+		if (!_isEncoderGenerated)
+		{
+			_isEncoderGenerated = true;
+			_encoderFactory = EncoderGenerator.generate(this);
+		}
+		return _encoderFactory;
+	}
+	
 	public FormatListener getFormat()
 	{
 		return _format;
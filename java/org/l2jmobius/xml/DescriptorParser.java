@@ -22,10 +22,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,7 +45,8 @@ public class DescriptorParser
 	private static final Logger LOGGER = Logger.getLogger(DescriptorParser.class.getName());
 	
 	private final Map<String, Map<Integer, String>> _enumMap = new HashMap<>();
-	private final Map<String, Map<String, String>> _enumReverseMap = new HashMap<>();
+	private final Map<String, Map<String, Integer>> _enumReverseMap = new HashMap<>();
+	private final Map<String, EnumTable> _enumTables = new ConcurrentHashMap<>();
 	private final Map<String, Map<String, Descriptor>> _descriptors = new HashMap<>();
 	private final Map<String, List<ParamNode>> _definitions = new HashMap<>();
 	private final Map<String, List<DescriptorLink>> _links = new LinkedHashMap<>();
@@ -58,6 +59,7 @@ public class DescriptorParser
 	{
 		parseDefinitions();
 		Util.loadFiles("./data/enums/", ".xml").forEach(this::parseEnum);
+		_enumMap.forEach((name, names) -> _enumTables.put(name, new EnumTable(name, names, _enumReverseMap.get(name))));
 		Util.loadFiles("./data/structure/", ".xml").forEach(this::parseDescriptor);
 	}
 	
@@ -133,7 +135,7 @@ public class DescriptorParser
 								}
 								
 								final Map<Integer, String> eTypes = _enumMap.computeIfAbsent(defName, m -> new HashMap<>());
-								final Map<String, String> eReverseTypes = _enumReverseMap.computeIfAbsent(defName, m -> new HashMap<>());
+								final Map<String, Integer> eReverseTypes = _enumReverseMap.computeIfAbsent(defName, m -> new HashMap<>());
 								for (Node node = defNode.getFirstChild(); node != null; node = node.getNextSibling())
 								{
 									if (node.getNodeName().equals("node"))
@@ -149,7 +151,7 @@ public class DescriptorParser
 											LOGGER.log(Level.WARNING, ("parseEnum Node index duplicated [" + eIndex + "]  fileName: " + file.getName() + " name: " + defName));
 										}
 										eTypes.put(eIndex, eName);
-										eReverseTypes.put(eName, String.valueOf(eIndex));
+										eReverseTypes.put(eName, eIndex);
 									}
 								}
 							}
@@ -249,7 +251,7 @@ public class DescriptorParser
 	private List<ParamNode> parseNodes(Node fileNode, boolean isHideName, Set<String> names, String fileName, List<ParamNode> parentNodes) throws Exception
 	{
 		final Map<String, Integer> defsCounter = new HashMap<>();
-		final List<ParamNode> nodes = new LinkedList<>();
+		final List<ParamNode> nodes = new ArrayList<>();
 		for (Node node = fileNode.getFirstChild(); node != null; node = node.getNextSibling())
 		{
 			final String nodeName = node.getNodeName();
@@ -532,40 +534,29 @@ public class DescriptorParser
 		return node.getAttributes().getNamedItem(name).getNodeValue();
 	}
 	
-	public String getEnumNameByIndex(String eName, int index)
+	/**
+	 * @param eName the name of an enum
+	 * @return the compiled enum, an empty one reporting its values as missing if it is not defined
+	 */
+	EnumTable getEnumTable(String eName)
 	{
-		if (!_enumMap.containsKey(eName))
-		{
-			LOGGER.log(Level.WARNING, ("Enum [" + eName + "] enum not found! index: " + index));
-			return String.valueOf(index);
-		}
-		
-		final String result = _enumMap.get(eName).get(index);
-		if (result == null)
-		{
-			LOGGER.log(Level.WARNING, ("Enum [" + eName + "] Enum var not found! var: " + index));
-			return String.valueOf(index);
-		}
-		
-		return result;
+		final EnumTable table = _enumTables.get(eName);
+		return (table != null) ? table : _enumTables.computeIfAbsent(eName, name -> new EnumTable(name, null, null));
 	}
 	
-	public String getEnumNameByName(String eName, String index)
+	/**
+	 * Logs the enum values met without a name since the last report, once per enum.
+	 */
+	public void reportEnumMisses()
 	{
-		if (!_enumReverseMap.containsKey(eName))
+		for (EnumTable table : _enumTables.values())
 		{
-			LOGGER.log(Level.WARNING, ("Enum [" + eName + "] enum not found! index: " + index));
-			return index;
-		}
-		
-		final String result = _enumReverseMap.get(eName).get(index);
-		if (result == null)
-		{
-			LOGGER.log(Level.WARNING, ("Enum [" + eName + "] Enum var not found! var: " + index));
-			return index;
+			final String misses = table.takeMisses();
+			if (misses != null)
+			{
+				LOGGER.log(Level.WARNING, misses);
+			}
 		}
-		
-		return result;
 	}
 	
 	public Set<String> getChronicleNames()
@@ -0,0 +1,315 @@
+/*
+ * This file is part of the L2ClientDat project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.l2jmobius.xml;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The node tree of a descriptor compiled once into a flat instruction array for {@link DescriptorReader}.<br>
+ * Each node list becomes a block of consecutive instructions, nested blocks are referenced by their bounds.<br>
+ * Everything the reader used to work out per record is resolved here: text written around values, variable slots and cycle name levels.<br>
+ * Only the variables read by a condition or a cycle need to be stored while decoding.
+ */
+final class DescriptorPlan
+{
+	static final int VARIABLE = 0;
+	static final int CONSTANT = 1;
+	static final int IF = 2;
+	static final int ELSE = 3;
+	static final int MASK = 4;
+	static final int WRAPPER = 5;
+	static final int CYCLE = 6;
+	
+	private static final String TAB = "\t";
+	private static final String EQ = "=";
+	private static final String SEMI = ";";
+	
+	private final List<Instruction> _list = new ArrayList<>();
+	private final Map<String, Integer> _slots = new HashMap<>();
+	private final Set<String> _referenced = new HashSet<>();
+	private final Instruction[] _instructions;
+	private final Block _root;
+	private final int _slotCount;
+	private int _maxDepth;
+	private boolean _hasNames;
+	
+	DescriptorPlan(List<ParamNode> nodes)
+	{
+		// Every variable is stored by name, so the nodes sharing a name share a slot.
+		collectSlots(nodes);
+		_root = compile(nodes, null, false, 0, 0);
+		_instructions = _list.toArray(new Instruction[_list.size()]);
+		_slotCount = _slots.size();
+	}
+	
+	Instruction[] getInstructions()
+	{
+		return _instructions;
+	}
+	
+	Block getRoot()
+	{
+		return _root;
+	}
+	
+	int getSlotCount()
+	{
+		return _slotCount;
+	}
+	
+	/**
+	 * @return {@code true} if a variable is an index of L2GameDataName, which may be replaced by its name
+	 */
+	boolean hasNames()
+	{
+		return _hasNames;
+	}
+	
+	/**
+	 * @return the deepest block nesting, the root block being at depth 0
+	 */
+	int getMaxDepth()
+	{
+		return _maxDepth;
+	}
+	
+	private void collectSlots(List<ParamNode> nodes)
+	{
+		for (ParamNode node : nodes)
+		{
+			if (node.getEntityType().isVariable())
+			{
+				_slots.putIfAbsent(node.getName(), _slots.size());
+				_hasNames |= node.getType() == ParamType.MAP_INT;
+			}
+			else if (node.getEntityType().isIf() || node.getEntityType().isElse())
+			{
+				_referenced.add(node.getParamIf());
+			}
+			else if (node.getEntityType().isMask())
+			{
+				_referenced.add(node.getParamMask());
+			}
+			else if (node.getEntityType().isCycle() && (node.getSize() < 0))
+			{
+				_referenced.add(node.getCycleName());
+			}
+			
+			if (node.getSubNodes() != null)
+			{
+				collectSlots(node.getSubNodes());
+			}
+		}
+	}
+	
+	private int getSlot(String name)
+	{
+		final Integer slot = _slots.get(name);
+		return (slot != null) ? slot : -1;
+	}
+	
+	/**
+	 * Nested blocks are compiled first, so the instructions of each block stay contiguous.
+	 * @param nodes the nodes of the block
+	 * @param cycle the cycle node repeating the block, {@code null} if the block runs once
+	 * @param isNameHidden {@code true} if the values are written without their names
+	 * @param cycleNameLevel the count of tabulations written before a cycle name
+	 * @param depth the nesting depth of the block
+	 * @return the compiled block
+	 */
+	private Block compile(List<ParamNode> nodes, ParamNode cycle, boolean isNameHidden, int cycleNameLevel, int depth)
+	{
+		_maxDepth = Math.max(_maxDepth, depth);
+		final boolean isAddCycleName = !isNameHidden && (cycle != null);
+		final int subLevel = isAddCycleName ? (cycleNameLevel + 1) : cycleNameLevel;
+		final int nodeSize = nodes.size();
+		int nNode = 0;
+		for (ParamNode n : nodes)
+		{
+			if (!n.isIterator())
+			{
+				++nNode;
+			}
+		}
+		
+		final Block[] subBlocks = new Block[nodeSize];
+		for (int j = 0; j < nodeSize; ++j)
+		{
+			final ParamNode node = nodes.get(j);
+			switch (node.getEntityType())
+			{
+				case IF:
+				case ELSE:
+				case MASK:
+				{
+					subBlocks[j] = compile(node.getSubNodes(), null, isNameHidden, subLevel, depth + 1);
+					break;
+				}
+				case WRAPPER:
+				{
+					subBlocks[j] = compile(node.getSubNodes(), null, true, subLevel, depth + 1);
+					break;
+				}
+				case FOR:
+				{
+					subBlocks[j] = compile(node.getSubNodes(), node, node.isNameHidden(), subLevel, depth + 1);
+					break;
+				}
+				default:
+				{
+					break;
+				}
+			}
+		}
+		
+		final int start = _list.size();
+		for (int j = 0; j < nodeSize; ++j)
+		{
+			final ParamNode node = nodes.get(j);
+			final ParamNodeType entityType = node.getEntityType();
+			if (entityType.isIf() || entityType.isElse())
+			{
+				_list.add(new Instruction(entityType.isIf() ? IF : ELSE, node, null, null, getSlot(node.getParamIf()), -1, false, node.getValIf(), subBlocks[j]));
+			}
+			else if (entityType.isMask())
+			{
+				_list.add(new Instruction(MASK, node, null, null, getSlot(node.getParamMask()), -1, false, null, subBlocks[j]));
+			}
+			else
+			{
+				final String prefix = (!node.isIterator() && !entityType.isConstant() && !isNameHidden && (entityType.isWrapper() || node.isNameHidden())) ? TAB + node.getName() + EQ : null;
+				final String suffix = (!node.isIterator() && !entityType.isConstant() && isNameHidden && (j != (nodeSize - 1))) ? SEMI : null;
+				final int debugSlot = getSlot(node.getName());
+				if (entityType.isWrapper())
+				{
+					_list.add(new Instruction(WRAPPER, node, prefix, suffix, -1, debugSlot, false, null, subBlocks[j]));
+				}
+				else if (entityType.isCycle())
+				{
+					_list.add(new Instruction(CYCLE, node, prefix, suffix, (node.getSize() >= 0) ? -1 : getSlot(node.getCycleName()), debugSlot, false, null, subBlocks[j]));
+				}
+				else if (entityType.isConstant())
+				{
+					_list.add(new Instruction(CONSTANT, node, prefix, suffix, -1, debugSlot, false, node.getName().replace("\\t", TAB).replace("\\r\\n", "\r\n"), null));
+				}
+				else
+				{
+					_list.add(new Instruction(VARIABLE, node, prefix, suffix, debugSlot, debugSlot, _referenced.contains(node.getName()), null, null));
+				}
+			}
+		}
+		
+		final StringBuilder beginText = new StringBuilder();
+		if (isAddCycleName)
+		{
+			for (int k = 0; k < cycleNameLevel; ++k)
+			{
+				beginText.append(TAB);
+			}
+			beginText.append(cycle.getName()).append("_begin");
+		}
+		return new Block(start, _list.size(), isAddCycleName ? beginText.toString() : null, isAddCycleName ? cycle.getName() + "_end\r\n" : null, isNameHidden, isNameHidden && (nNode > 1), depth);
+	}
+	
+	/**
+	 * A single step of a block. The fields that do not apply to the opcode are {@code null} or -1.
+	 */
+	static final class Instruction
+	{
+		final int opcode;
+		final ParamNode node;
+		/** Written before the value, {@code "\tname="} when the name is shown. */
+		final String prefix;
+		/** Written after the value, the separator of hidden names. */
+		final String suffix;
+		/** The slot written by a variable, or read by a condition or a cycle. */
+		final int slot;
+		/** The slot holding a variable of the node name, for position debugging. */
+		final int debugSlot;
+		/** The value of a variable is read by a condition or a cycle. */
+		final boolean isStored;
+		/** The text of a constant, or the value compared by a condition. */
+		final String text;
+		/** The text is the canonical form of an integer, integers are compared without their text. */
+		final boolean isNumber;
+		final int number;
+		final Block block;
+		
+		Instruction(int opcode, ParamNode node, String prefix, String suffix, int slot, int debugSlot, boolean isStored, String text, Block block)
+		{
+			this.opcode = opcode;
+			this.node = node;
+			this.prefix = prefix;
+			this.suffix = suffix;
+			this.slot = slot;
+			this.debugSlot = debugSlot;
+			this.isStored = isStored;
+			this.text = text;
+			this.block = block;
+			
+			int value = 0;
+			boolean isCanonical = false;
+			if ((opcode == IF) || (opcode == ELSE))
+			{
+				try
+				{
+					value = Integer.parseInt(text);
+					isCanonical = Integer.toString(value).equals(text);
+				}
+				catch (NumberFormatException e)
+				{
+					// Compared as text.
+				}
+			}
+			isNumber = isCanonical;
+			number = value;
+		}
+	}
+	
+	/**
+	 * The instructions {@code [start, end)} run once per iteration of a cycle, or once for the other nodes.
+	 */
+	static final class Block
+	{
+		final int start;
+		final int end;
+		/** Written when an iteration starts, {@code null} if the cycle name is not shown. */
+		final String beginText;
+		/** Written when an iteration ends, {@code null} if the cycle name is not shown. */
+		final String endText;
+		final boolean isNameHidden;
+		/** The values of an iteration are enclosed in braces. */
+		final boolean braces;
+		final int depth;
+		
+		Block(int start, int end, String beginText, String endText, boolean isNameHidden, boolean braces, int depth)
+		{
+			this.start = start;
+			this.end = end;
+			this.beginText = beginText;
+			this.endText = endText;
+			this.isNameHidden = isNameHidden;
+			this.braces = braces;
+			this.depth = depth;
+		}
+	}
+}
@@ -17,11 +17,18 @@
 package org.l2jmobius.xml;
 
 import java.io.File;
-import java.math.BigDecimal;
+import java.io.Writer;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.l2jmobius.L2ClientDat;
 import org.l2jmobius.actions.ActionTask;
@@ -30,11 +37,15 @@ import org.l2jmobius.config.ConfigDebug;
 import org.l2jmobius.config.ConfigWindow;
 import org.l2jmobius.data.GameDataName;
 import org.l2jmobius.util.ByteReader;
+import org.l2jmobius.util.DecimalUtil;
 import org.l2jmobius.util.DebugUtil;
+import org.l2jmobius.xml.DescriptorPlan.Block;
+import org.l2jmobius.xml.DescriptorPlan.Instruction;
 
 public class DescriptorReader
 {
-	private static final String EQ = "=";
+	private static final Logger LOGGER = Logger.getLogger(DescriptorReader.class.getName());
+	
 	private static final String TAB = "\t";
 	private static final String SEMI = ";";
 	private static final String LB = "[";
@@ -45,65 +56,97 @@ public class DescriptorReader
 	}
 	
 	public String parseData(ActionTask actionTask, double weight, File currentFile, DatCrypter crypter, Descriptor desc, ByteBuffer data, boolean mass) throws Exception
+	{
+		final TextBuffer text = TextBuffer.acquire(data.remaining(), null);
+		try
+		{
+			return parseData(actionTask, weight, currentFile, crypter, desc, data, text, mass) ? text.getText() : null;
+		}
+		finally
+		{
+			text.release();
+		}
+	}
+	
+	/**
+	 * Decodes the data into a writer instead of a string.<br>
+	 * In mass mode the text is written record by record, so only the text of a record is held in memory. Raw and formatted data are still decoded whole.
+	 * @param out receives the text that the string version returns
+	 * @return the count of chars written, or -1 where the string version returns {@code null}, the text written is then to be discarded
+	 * @throws Exception
+	 */
+	public long parseData(ActionTask actionTask, double weight, File currentFile, DatCrypter crypter, Descriptor desc, ByteBuffer data, Writer out, boolean mass) throws Exception
+	{
+		final TextBuffer text = TextBuffer.acquire(data.remaining(), out);
+		try
+		{
+			return parseData(actionTask, weight, currentFile, crypter, desc, data, text, mass) ? text.finish() : -1;
+		}
+		finally
+		{
+			text.release();
+		}
+	}
+	
+	private boolean parseData(ActionTask actionTask, double weight, File currentFile, DatCrypter crypter, Descriptor desc, ByteBuffer data, TextBuffer text, boolean mass) throws Exception
 	{
 		boolean error = false;
 		double progress = actionTask.getCurrentProgress();
 		final boolean hasFormatter = (desc.getFormat() != null) && !ConfigWindow.CURRENT_FORMATTER.equalsIgnoreCase("Disabled");
-		String stringData;
 		if (desc.isRawData())
 		{
 			if (actionTask.isCancelled())
 			{
-				return null;
+				return false;
 			}
 			
 			progress = actionTask.addProgress(progress, hasFormatter ? 20.0 : 49.0, weight);
-			final StringBuilder builder = new StringBuilder();
+			final StringBuilder builder = text.getBuilder();
 			final ParamNode node = desc.getNodes().get(0);
-			if (!readVariables(currentFile, crypter, node, new HashMap<>(), data, builder, true, mass))
+			if (!readVariable(currentFile, crypter, node, null, -1, data, builder, true, mass))
 			{
 				if (mass)
 				{
-					return null;
+					return false;
 				}
 				
-				final String errorMsg = stringData = String.format("Error while parsing variable NAME[%s] TYPE[%s] in file NAME[%s]! Parsed data: %s", node.getName(), node.getType(), currentFile.getName(), builder);
+				final String errorMsg = String.format("Error while parsing variable NAME[%s] TYPE[%s] in file NAME[%s]! Parsed data: %s", node.getName(), node.getType(), currentFile.getName(), builder);
 				L2ClientDat.addLogConsole(errorMsg, true);
+				text.setText(errorMsg);
 			}
 			else
 			{
-				stringData = builder.toString();
+				text.setText(builder.toString());
 			}
 			progress = actionTask.addProgress(progress, 50.0, weight);
 		}
 		else
 		{
-			final Map<String, Variant> vars = new HashMap<>();
-			final Data result = parseData(actionTask, actionTask.getWeightValue(69.0, weight), currentFile, crypter, data, null, desc.getNodes(), 1, vars, false, 0, mass);
+			// A formatted text is only known whole, so it is not streamed.
+			final Data result = decode(actionTask, actionTask.getWeightValue(69.0, weight), currentFile, crypter, desc, data, text, mass && !hasFormatter, mass);
 			if (result != null)
 			{
-				stringData = result.data.toString().trim();
 				error = result.error;
 			}
 			else
 			{
-				stringData = "";
+				text.setText("");
 				error = true;
 			}
 			
 			if (actionTask.isCancelled())
 			{
-				return null;
+				return false;
 			}
 			
 			progress = actionTask.addProgress(progress, 69.0, weight);
 		}
-		if (!error && (desc.getFormat() != null) && !ConfigWindow.CURRENT_FORMATTER.equalsIgnoreCase("Disabled"))
+		if (!error && hasFormatter)
 		{
-			stringData = desc.getFormat().decode(actionTask, actionTask.getWeightValue(30.0, weight), stringData);
+			text.setText(desc.getFormat().decode(actionTask, actionTask.getWeightValue(30.0, weight), text.getText()));
 			if (actionTask.isCancelled())
 			{
-				return null;
+				return false;
 			}
 			
 			progress = actionTask.addProgress(progress, 30.0, weight);
@@ -114,252 +157,788 @@ public class DescriptorReader
 		{
 			if (mass)
 			{
-				return null;
+				return false;
 			}
 			
 			L2ClientDat.addLogConsole("Unpacked not full " + data.position() + "/" + data.limit() + " diff: " + (data.limit() - pos), true);
 		}
-		return stringData;
+		return true;
 	}
 	
-	private Data parseData(ActionTask actionTask, double weight, File currentFile, DatCrypter crypter, ByteBuffer data, ParamNode lastNode, List<ParamNode> nodes, int cycleSize, Map<String, Variant> vars, boolean isNameHidden, int cycleNameLevel, boolean mass) throws Exception
+	/**
+	 * Decodes the data by the generated decoder of the descriptor when enabled, or by its plan.<br>
+	 * In verify mode both run and the plan result is used, a difference is logged.
+	 * @param text receives the parsed text
+	 * @param stream {@code true} to drain the text of the records to the writer of the buffer, ignored in verify mode
+	 * @return the error state, or {@code null} if the task was cancelled
+	 */
+	private Data decode(ActionTask actionTask, double weight, File currentFile, DatCrypter crypter, Descriptor desc, ByteBuffer data, TextBuffer text, boolean stream, boolean mass) throws Exception
 	{
-		if (cycleSize <= 0)
+		// Position debugging is only done by the plan.
+		final DecoderGenerator.Factory factory = (ConfigDebug.DAT_GENERATED_DECODERS && !ConfigDebug.DAT_DEBUG_POS) ? desc.getDecoderFactory() : null;
+		if (factory == null)
+		{
+			return parseData(actionTask, weight, currentFile, crypter, data, desc.getPlan(), text, stream, mass);
+		}
+		
+		if (!ConfigDebug.DAT_VERIFY_DECODERS)
+		{
+			return runDecoder(factory, actionTask, weight, currentFile, crypter, data, text, stream, mass);
+		}
+		
+		final ByteBuffer generatedData = data.duplicate();
+		final Data result = parseData(actionTask, weight, currentFile, crypter, data, desc.getPlan(), text, false, mass);
+		if (result == null)
 		{
 			return null;
 		}
 		
-		if (cycleSize > 1000000)
+		// The generated text is written after the plan text, compared, then dropped.
+		final int mark = text.mark();
+		Data generated = null;
+		Exception generatedError = null;
+		try
 		{
-			throw new Exception("To much data.");
+			generated = runDecoder(factory, actionTask, 0.0, currentFile, crypter, generatedData, text, false, true);
+		}
+		catch (Exception e)
+		{
+			generatedError = e;
 		}
 		
-		final Data result = new Data();
-		final StringBuilder out = result.data;
-		for (int i = 0; i < cycleSize; ++i)
+		if (generatedError != null)
 		{
-			if (actionTask.isCancelled())
-			{
-				return null;
-			}
-			
-			final boolean isAddCycleName = !isNameHidden && (lastNode != null) && lastNode.getEntityType().isCycle();
-			if (isAddCycleName)
+			LOGGER.log(Level.WARNING, "Generated decoder of " + desc.getAlias() + " " + desc.getFilePattern() + " failed on " + currentFile.getName() + ".", generatedError);
+		}
+		else if (generated != null)
+		{
+			final StringBuilder out = text.getBuilder();
+			final int generatedLength = out.length() - mark;
+			final int length = Math.min(mark, generatedLength);
+			int diff = 0;
+			while ((diff < length) && (out.charAt(diff) == out.charAt(mark + diff)))
 			{
-				for (int k = 0; k < cycleNameLevel; ++k)
-				{
-					out.append(TAB);
-				}
-				out.append(lastNode.getName().concat("_begin"));
-				++cycleNameLevel;
+				++diff;
 			}
 			
-			final int nodeSize = nodes.size();
-			int nNode = 0;
-			for (ParamNode n : nodes)
+			if ((diff < mark) || (diff < generatedLength) || (result.error != generated.error) || (data.position() != generatedData.position()))
 			{
-				if (!n.isIterator())
-				{
-					++nNode;
-				}
+				LOGGER.log(Level.WARNING, "Generated decoder of " + desc.getAlias() + " " + desc.getFilePattern() + " differs on " + currentFile.getName() + " at char " + diff + ", data position " + generatedData.position() + "/" + data.position() + ".");
 			}
-			
-			if (isNameHidden && (nNode > 1))
-			{
-				out.append("{");
-			}
-			
-			final double progress = actionTask.getCurrentProgress();
-			final double progressWeight = 100.0 / cycleSize / nodeSize;
-			for (int j = 0; j < nodeSize; ++j)
+		}
+		text.rollback(mark);
+		return result;
+	}
+	
+	private Data runDecoder(DecoderGenerator.Factory factory, ActionTask actionTask, double weight, File currentFile, DatCrypter crypter, ByteBuffer data, TextBuffer text, boolean stream, boolean mass) throws Exception
+	{
+		final GeneratedDecoder decoder = factory.newDecoder();
+		decoder.init(actionTask, weight, currentFile, crypter, factory.getNodes(), mass);
+		final Data result = new Data();
+		try
+		{
+			result.error = !decoder.run(data, text.getBuilder(), stream ? text : null);
+		}
+		catch (CancellationException e)
+		{
+			return null;
+		}
+		return result;
+	}
+	
+	/**
+	 * Runs the compiled plan of a descriptor over the data.<br>
+	 * Nested blocks are tracked on stacks sized by the plan and the variables in a typed frame, so nothing is allocated per record but the read strings.<br>
+	 * Only the variables read by a condition or a cycle are stored, unless positions are debugged.<br>
+	 * Every block writes to the same output, the start of its text is kept as a mark for error reporting.<br>
+	 * The text is only drained between top-level records in mass mode, where the text of a failing block is not logged.
+	 * @param text receives the parsed text
+	 * @param stream {@code true} to drain the text of the records to the writer of the buffer
+	 * @return the error state, or {@code null} if the task was cancelled
+	 */
+	private Data parseData(ActionTask actionTask, double weight, File currentFile, DatCrypter crypter, ByteBuffer data, DescriptorPlan plan, TextBuffer text, boolean stream, boolean mass) throws Exception
+	{
+		return parseData(actionTask, weight, currentFile, crypter, data, plan, plan.getRoot(), 0, 1, 1, new VariableFrame(plan.getSlotCount()), text.getBuilder(), stream ? text : null, mass);
+	}
+	
+	/**
+	 * Runs the iterations {@code [firstIteration, toIteration)} of a block out of {@code cycleSize}, the root block or the records of a batch.
+	 * @param actionTask the task of the progress, {@code null} for a batch of records which neither reports progress nor splits into batches
+	 * @param stream the buffer drained between top-level records, {@code null} to keep the whole text
+	 * @return the error state, or {@code null} if the task was cancelled
+	 */
+	private Data parseData(ActionTask actionTask, double weight, File currentFile, DatCrypter crypter, ByteBuffer data, DescriptorPlan plan, Block start, int firstIteration, int toIteration, int cycleSize, VariableFrame vars, StringBuilder out, TextBuffer stream, boolean mass) throws Exception
+	{
+		final Instruction[] instructions = plan.getInstructions();
+		final boolean storeAll = ConfigDebug.DAT_DEBUG_POS;
+		final boolean parallel = (actionTask != null) && isParallel();
+		final int stackSize = plan.getMaxDepth() + 1;
+		final Block[] blocks = new Block[stackSize];
+		final int[] pcs = new int[stackSize];
+		final int[] iterations = new int[stackSize];
+		final int[] cycleSizes = new int[stackSize];
+		final int[] outStarts = new int[stackSize];
+		final double progress = (actionTask != null) ? actionTask.getCurrentProgress() : 0.0;
+		final Data result = new Data();
+		
+		int depth = 0;
+		Block block = start;
+		blocks[0] = block;
+		iterations[0] = firstIteration;
+		cycleSizes[0] = cycleSize;
+		outStarts[0] = out.length();
+		beginIteration(block, out);
+		int pc = block.start;
+		while (true)
+		{
+			if (pc < block.end)
 			{
-				if (actionTask.isCancelled())
-				{
-					return null;
-				}
-				
-				final ParamNode node = nodes.get(j);
-				if (node.getEntityType().isIf())
+				final Instruction ins = instructions[pc];
+				Block subBlock = null;
+				int subSize = 1;
+				int subIteration = 0;
+				int subOutStart = -1;
+				switch (ins.opcode)
 				{
-					final Variant variant = vars.get(node.getParamIf());
-					if ((variant != null) && variant.toString().equalsIgnoreCase(node.getValIf()))
+					case DescriptorPlan.VARIABLE:
 					{
-						final Data dataResult = parseData(actionTask, actionTask.getWeightValue(progressWeight, weight), currentFile, crypter, data, null, node.getSubNodes(), 1, vars, isNameHidden, cycleNameLevel, mass);
-						if (dataResult != null)
+						if (ins.prefix != null)
 						{
-							out.append(dataResult.data);
-							if (dataResult.error)
-							{
-								result.error = true;
-								break;
-							}
+							out.append(ins.prefix);
 						}
-					}
-				}
-				else if (node.getEntityType().isElse())
-				{
-					final Variant variant = vars.get(node.getParamIf());
-					if ((variant != null) && !variant.toString().equalsIgnoreCase(node.getValIf()))
-					{
-						final Data dataResult = parseData(actionTask, actionTask.getWeightValue(progressWeight, weight), currentFile, crypter, data, null, node.getSubNodes(), 1, vars, isNameHidden, cycleNameLevel, mass);
-						if (dataResult != null)
+						
+						if (!readVariable(currentFile, crypter, ins.node, vars, (ins.isStored || storeAll) ? ins.slot : -1, data, out, false, mass))
 						{
-							out.append(dataResult.data);
-							if (dataResult.error)
+							if (!mass)
 							{
-								result.error = true;
-								break;
+								L2ClientDat.addLogConsole(String.format("Error while parsing variable NAME[%s] TYPE[%s] in file NAME[%s]! Parsed data: %s", ins.node.getName(), ins.node.getType(), currentFile.getName(), out.substring(outStarts[depth])), true);
 							}
+							
+							// The current iteration is closed, then every enclosing one.
+							result.error = true;
+							pc = block.end;
+							continue;
 						}
+						break;
 					}
-				}
-				else if (node.getEntityType().isMask())
-				{
-					final Variant variant = vars.get(node.getParamMask());
-					if (variant != null)
+					case DescriptorPlan.CONSTANT:
 					{
-						final int value = Integer.parseInt(variant.toString());
-						if ((value & node.getValMask()) == node.getValMask())
-						{
-							final Data dataResult2 = parseData(actionTask, actionTask.getWeightValue(progressWeight, weight), currentFile, crypter, data, null, node.getSubNodes(), 1, vars, isNameHidden, cycleNameLevel, mass);
-							if (dataResult2 != null)
-							{
-								out.append(dataResult2.data);
-								if (dataResult2.error)
-								{
-									result.error = true;
-									break;
-								}
-							}
-						}
+						out.append(ins.text);
+						break;
 					}
-				}
-				else
-				{
-					if (!node.isIterator() && !node.getEntityType().isConstant() && !isNameHidden && (node.getEntityType().isWrapper() || node.isNameHidden()))
+					case DescriptorPlan.IF:
+					case DescriptorPlan.ELSE:
+					case DescriptorPlan.MASK:
 					{
-						out.append(TAB).append(node.getName()).append(EQ);
+						if (isTrue(ins, vars))
+						{
+							subBlock = ins.block;
+						}
+						break;
 					}
-					if (node.getEntityType().isWrapper())
+					case DescriptorPlan.WRAPPER:
 					{
-						final Data dataResult3 = parseData(actionTask, actionTask.getWeightValue(progressWeight, weight), currentFile, crypter, data, null, node.getSubNodes(), 1, vars, true, cycleNameLevel, mass);
-						if (dataResult3 != null)
+						if (ins.prefix != null)
 						{
-							out.append(dataResult3.data);
-							if (dataResult3.error)
-							{
-								result.error = true;
-								break;
-							}
+							out.append(ins.prefix);
 						}
+						subBlock = ins.block;
+						break;
 					}
-					else if (node.getEntityType().isCycle())
+					case DescriptorPlan.CYCLE:
 					{
-						int size;
-						if (node.getSize() >= 0)
+						if (ins.prefix != null)
 						{
-							size = node.getSize();
+							out.append(ins.prefix);
 						}
-						else
+						
+						subSize = getCycleSize(ins, vars);
+						if (subSize > 1000000)
 						{
-							final Variant var2 = vars.get(node.getCycleName());
-							if (var2.isInt())
-							{
-								size = var2.getInt();
-							}
-							else
-							{
-								if (!var2.isShort())
-								{
-									throw new Exception("Wrong cycle variable format for cycle: " + node.getName() + " iterator: " + node.getCycleName());
-								}
-								size = var2.getShort();
-							}
+							throw new Exception("To much data.");
 						}
-						if (node.isNameHidden())
+						
+						if (ins.node.isNameHidden())
 						{
 							out.append("{");
 						}
 						
-						final Data dataResult = parseData(actionTask, actionTask.getWeightValue(progressWeight, weight), currentFile, crypter, data, node, node.getSubNodes(), size, vars, node.isNameHidden(), cycleNameLevel, mass);
-						if (dataResult != null)
+						if (subSize > 0)
 						{
-							out.append(dataResult.data);
-							if (dataResult.error)
+							// The records of a top-level cycle are decoded by batches, the records left are decoded here.
+							subOutStart = out.length();
+							subIteration = (parallel && (block.depth == 0)) ? decodeRecords(actionTask, weight, progress, currentFile, crypter, data, plan, ins.block, subSize, vars, out, stream, mass) : 0;
+							if (subIteration < subSize)
 							{
-								result.error = true;
-								break;
+								subBlock = ins.block;
 							}
 						}
-						
-						if (node.isNameHidden())
-						{
-							out.append("}");
-						}
-					}
-					else if (node.getEntityType().isConstant())
-					{
-						out.append(node.getName().replace("\\t", TAB).replace("\\r\\n", "\r\n"));
+						break;
 					}
-					else if (node.getEntityType().isVariable() && !readVariables(currentFile, crypter, node, vars, data, out, false, mass))
+				}
+				
+				if (subBlock != null)
+				{
+					pcs[depth] = pc;
+					++depth;
+					block = subBlock;
+					blocks[depth] = block;
+					iterations[depth] = subIteration;
+					cycleSizes[depth] = subSize;
+					outStarts[depth] = (subOutStart >= 0) ? subOutStart : out.length();
+					beginIteration(block, out);
+					pc = block.start;
+					continue;
+				}
+				
+				endInstruction(ins, vars, data, out);
+				++pc;
+			}
+			else
+			{
+				endIteration(block, iterations[depth], cycleSizes[depth], out);
+				if (!result.error && (++iterations[depth] < ((depth == 0) ? toIteration : cycleSizes[depth])))
+				{
+					if ((actionTask != null) && (block.depth <= 1))
 					{
-						if (!mass)
+						if (actionTask.isCancelled())
 						{
-							L2ClientDat.addLogConsole(String.format("Error while parsing variable NAME[%s] TYPE[%s] in file NAME[%s]! Parsed data: %s", node.getName(), node.getType(), currentFile.getName(), out.toString()), true);
+							return null;
 						}
 						
-						result.error = true;
-						break;
-					}
-					
-					if (!node.isIterator() && !node.getEntityType().isConstant() && isNameHidden && (j != (nodeSize - 1)))
-					{
-						out.append(SEMI);
+						if (data.limit() > 0)
+						{
+							actionTask.addProgress(progress, (100.0 * data.position()) / data.limit(), weight);
+						}
+						
+						if (stream != null)
+						{
+							stream.drain();
+						}
 					}
 					
-					if (vars.containsKey(node.getName()))
-					{
-						DebugUtil.debugPos(data.position(), node.getName(), vars.get(node.getName()));
-					}
+					beginIteration(block, out);
+					pc = block.start;
+					continue;
 				}
 				
-				if (actionTask.isCancelled())
+				if (depth == 0)
 				{
-					return null;
+					break;
 				}
 				
-				actionTask.addProgress(progress, progressWeight, weight);
+				--depth;
+				block = blocks[depth];
+				pc = pcs[depth];
+				if (result.error)
+				{
+					pc = block.end;
+					continue;
+				}
+				
+				endInstruction(instructions[pc], vars, data, out);
+				++pc;
 			}
-			if (isNameHidden)
+		}
+		return result;
+	}
+	
+	/**
+	 * @return {@code true} if the records may be decoded in parallel, position debugging prints in order
+	 */
+	private static boolean isParallel()
+	{
+		return ConfigDebug.PARALLEL_DECODE && !ConfigDebug.DAT_DEBUG_POS && (ForkJoinPool.getCommonPoolParallelism() > 1);
+	}
+	
+	/**
+	 * Decodes the records of a top-level cycle by batches on the common pool, the text of the batches is appended in order.<br>
+	 * A first pass skips over the records to find where each batch starts and the variables it starts with, without building any text.<br>
+	 * The data and the variables are left at the first record not decoded, a failing record is decoded again in sequence to report its error.
+	 * @return the count of records decoded, from the first one
+	 */
+	private int decodeRecords(ActionTask actionTask, double weight, double progress, File currentFile, DatCrypter crypter, ByteBuffer data, DescriptorPlan plan, Block block, int cycleSize, VariableFrame vars, StringBuilder out, TextBuffer stream, boolean mass) throws Exception
+	{
+		final int batchSize = Math.max(1, ConfigDebug.PARALLEL_DECODE_BATCH_SIZE);
+		if (cycleSize < (batchSize * 2))
+		{
+			return 0;
+		}
+		
+		if (ConfigDebug.DAT_REPLACEMENT_NAMES && plan.hasNames())
+		{
+			final Exception[] error = new Exception[1];
+			final List<String> logs = L2ClientDat.groupLogConsole(() ->
 			{
-				if (nNode > 1)
+				try
 				{
-					out.append("}");
+					GameDataName.getInstance().loadNames(currentFile, crypter);
 				}
-				if (i < (cycleSize - 1))
+				catch (Exception e)
 				{
-					out.append(SEMI);
+					error[0] = e;
 				}
+			});
+			if (error[0] != null)
+			{
+				// Decoded in sequence, which loads the names again and reports them for each variable the same way.
+				return 0;
 			}
-			if (isAddCycleName)
+			L2ClientDat.addLogConsole(logs);
+		}
+		
+		final int maxBatches = ((cycleSize - 1) / batchSize) + 1;
+		final int[] offsets = new int[maxBatches + 1];
+		final VariableFrame[] frames = new VariableFrame[maxBatches + 1];
+		int batchCount = 0;
+		offsets[0] = data.position();
+		frames[0] = vars.copy();
+		try
+		{
+			for (int record = 0; record < cycleSize; ++record)
 			{
-				if (out.charAt(out.length() - 1) != '\n')
+				skipIteration(plan.getInstructions(), block, vars, data);
+				if ((((record + 1) % batchSize) == 0) || ((record + 1) == cycleSize))
 				{
-					out.append(TAB);
+					++batchCount;
+					offsets[batchCount] = data.position();
+					frames[batchCount] = vars.copy();
 				}
-				out.append(lastNode.getName()).append("_end\r\n");
-				--cycleNameLevel;
 			}
-			
-			if (result.error)
+		}
+		catch (Exception e)
+		{
+			// The records from the batch of the failing one are decoded in sequence.
+		}
+		
+		if (batchCount < 2)
+		{
+			data.position(offsets[0]);
+			vars.copyFrom(frames[0]);
+			return 0;
+		}
+		
+		final int maxInFlight = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 4);
+		final Deque<ForkJoinTask<Batch>> inFlight = new ArrayDeque<>(maxInFlight);
+		final AtomicBoolean stopped = new AtomicBoolean();
+		int nextBatch = 0;
+		int decoded = 0;
+		try
+		{
+			while (decoded < batchCount)
+			{
+				while ((nextBatch < batchCount) && (inFlight.size() < maxInFlight))
+				{
+					final int batch = nextBatch++;
+					inFlight.addLast(ForkJoinPool.commonPool().submit(() -> stopped.get() ? null : decodeBatch(currentFile, crypter, data, plan, block, batch * batchSize, Math.min(cycleSize, (batch + 1) * batchSize), cycleSize, frames[batch].copy(), offsets[batch], offsets[batch + 1], mass)));
+				}
+				
+				final Batch batch = join(inFlight.removeFirst());
+				if ((batch == null) || actionTask.isCancelled())
+				{
+					break;
+				}
+				
+				out.append(batch.text);
+				L2ClientDat.addLogConsole(batch.logs);
+				++decoded;
+				if (data.limit() > 0)
+				{
+					actionTask.addProgress(progress, (100.0 * offsets[decoded]) / data.limit(), weight);
+				}
+				
+				if (stream != null)
+				{
+					stream.drain();
+				}
+			}
+		}
+		finally
+		{
+			stopped.set(true);
+			for (ForkJoinTask<Batch> pending : inFlight)
+			{
+				pending.quietlyJoin();
+			}
+		}
+		
+		data.position(offsets[decoded]);
+		vars.copyFrom(frames[decoded]);
+		return Math.min(cycleSize, decoded * batchSize);
+	}
+	
+	/**
+	 * Decodes the records {@code [firstRecord, endRecord)} of a top-level cycle, on a pool thread.<br>
+	 * The lines logged meanwhile are held, they are added with the text in the order of the records.
+	 * @return the text and the lines of the records, or {@code null} if they do not decode the same way as they were skipped
+	 */
+	private Batch decodeBatch(File currentFile, DatCrypter crypter, ByteBuffer data, DescriptorPlan plan, Block block, int firstRecord, int endRecord, int cycleSize, VariableFrame vars, int start, int end, boolean mass)
+	{
+		final Batch batch = new Batch();
+		batch.logs = L2ClientDat.groupLogConsole(() -> batch.text = decodeText(currentFile, crypter, data, plan, block, firstRecord, endRecord, cycleSize, vars, start, end, mass));
+		return (batch.text != null) ? batch : null;
+	}
+	
+	/**
+	 * @return the text of the records of a batch, or {@code null} if they do not decode the same way as they were skipped
+	 */
+	private StringBuilder decodeText(File currentFile, DatCrypter crypter, ByteBuffer data, DescriptorPlan plan, Block block, int firstRecord, int endRecord, int cycleSize, VariableFrame vars, int start, int end, boolean mass)
+	{
+		try
+		{
+			final ByteBuffer batchData = data.duplicate();
+			batchData.position(start);
+			final StringBuilder out = new StringBuilder((end - start) * 3);
+			final Data result = parseData(null, 0.0, currentFile, crypter, batchData, plan, block, firstRecord, endRecord, cycleSize, vars, out, null, mass);
+			return ((result != null) && !result.error && (batchData.position() == end)) ? out : null;
+		}
+		catch (Exception e)
+		{
+			return null;
+		}
+	}
+	
+	private static Batch join(ForkJoinTask<Batch> task)
+	{
+		try
+		{
+			return task.get();
+		}
+		catch (InterruptedException | ExecutionException e)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Decodes a single record of a top-level cycle, its text is the same as in the text of the whole file.
+	 * @param vars the variables when the record starts, the record changes them
+	 * @return the text of the record, or {@code null} if it cannot be decoded
+	 */
+	String readRecord(File currentFile, DatCrypter crypter, ByteBuffer data, DescriptorPlan plan, Block block, int record, int cycleSize, VariableFrame vars) throws Exception
+	{
+		final StringBuilder out = new StringBuilder();
+		final Data result = parseData(null, 0.0, currentFile, crypter, data, plan, block, record, record + 1, cycleSize, vars, out, null, true);
+		return ((result != null) && !result.error) ? out.toString() : null;
+	}
+	
+	/**
+	 * Moves the data past an iteration of a block without building its text, only the variables read by conditions and cycles are stored.
+	 * @throws Exception if the data does not match the descriptor
+	 */
+	static void skipIteration(Instruction[] instructions, Block block, VariableFrame vars, ByteBuffer data) throws Exception
+	{
+		for (int pc = block.start; pc < block.end; ++pc)
+		{
+			skipInstruction(instructions, instructions[pc], vars, data);
+		}
+	}
+	
+	static void skipInstruction(Instruction[] instructions, Instruction ins, VariableFrame vars, ByteBuffer data) throws Exception
+	{
+		switch (ins.opcode)
+		{
+			case DescriptorPlan.VARIABLE:
+			{
+				skipVariable(ins.node, vars, ins.isStored ? ins.slot : -1, data);
+				break;
+			}
+			case DescriptorPlan.IF:
+			case DescriptorPlan.ELSE:
+			case DescriptorPlan.MASK:
+			{
+				if (isTrue(ins, vars))
+				{
+					skipIteration(instructions, ins.block, vars, data);
+				}
+				break;
+			}
+			case DescriptorPlan.WRAPPER:
+			{
+				skipIteration(instructions, ins.block, vars, data);
+				break;
+			}
+			case DescriptorPlan.CYCLE:
 			{
+				final int size = getCycleSize(ins, vars);
+				if (size > 1000000)
+				{
+					throw new Exception("To much data.");
+				}
+				
+				for (int i = 0; i < size; ++i)
+				{
+					skipIteration(instructions, ins.block, vars, data);
+				}
 				break;
 			}
 		}
-		return result;
 	}
 	
-	private boolean readVariables(File currentFile, DatCrypter crypter, ParamNode node, Map<String, Variant> vars, ByteBuffer data, StringBuilder out, boolean isRaw, boolean mass)
+	/**
+	 * Reads a value the same way as {@link #readVariable}, strings and colors are only skipped unless stored.
+	 */
+	private static void skipVariable(ParamNode node, VariableFrame vars, int slot, ByteBuffer data) throws Exception
+	{
+		switch (node.getType())
+		{
+			case UCHAR:
+			{
+				final short value = (byte) ByteReader.readChar(data);
+				if (slot >= 0)
+				{
+					vars.setShort(slot, value);
+				}
+				break;
+			}
+			case SHORT:
+			{
+				final short value = ByteReader.readShort(data);
+				if (slot >= 0)
+				{
+					vars.setShort(slot, value);
+				}
+				break;
+			}
+			case UBYTE:
+			case HEX:
+			{
+				final int value = ByteReader.readUByte(data);
+				if (slot >= 0)
+				{
+					vars.setInt(slot, value);
+				}
+				break;
+			}
+			case USHORT:
+			{
+				final int value = ByteReader.readShort(data) & 0xFFFF;
+				if (slot >= 0)
+				{
+					vars.setInt(slot, value);
+				}
+				break;
+			}
+			case UINT:
+			case INT:
+			case MAP_INT:
+			{
+				final int value = ByteReader.readInt(data);
+				if (slot >= 0)
+				{
+					vars.setInt(slot, value);
+				}
+				break;
+			}
+			case CNTR:
+			{
+				final int value = ByteReader.readCompactInt(data);
+				if (slot >= 0)
+				{
+					vars.setInt(slot, value);
+				}
+				break;
+			}
+			case UNICODE:
+			{
+				if (slot >= 0)
+				{
+					vars.setString(slot, ByteReader.readUtfString(data, false));
+				}
+				else
+				{
+					ByteReader.skipUtfString(data);
+				}
+				break;
+			}
+			case ASCF:
+			{
+				if (slot >= 0)
+				{
+					vars.setString(slot, ByteReader.readString(data, false));
+				}
+				else
+				{
+					ByteReader.skipString(data);
+				}
+				break;
+			}
+			case DOUBLE:
+			{
+				final double value = ByteReader.readDouble(data);
+				if (slot >= 0)
+				{
+					vars.setDouble(slot, value);
+				}
+				break;
+			}
+			case FLOAT:
+			{
+				final float value = ByteReader.readFloat(data);
+				if (slot >= 0)
+				{
+					vars.setFloat(slot, value);
+				}
+				break;
+			}
+			case LONG:
+			{
+				final long value = ByteReader.readLong(data);
+				if (slot >= 0)
+				{
+					vars.setLong(slot, value);
+				}
+				break;
+			}
+			case RGBA:
+			{
+				if (slot >= 0)
+				{
+					vars.setString(slot, ByteReader.readRGBA(data));
+				}
+				else
+				{
+					data.position(data.position() + 4);
+				}
+				break;
+			}
+			case RGB:
+			{
+				if (slot >= 0)
+				{
+					vars.setString(slot, ByteReader.readRGB(data));
+				}
+				else
+				{
+					data.position(data.position() + 3);
+				}
+				break;
+			}
+			default:
+			{
+				throw new Exception("Unknown type " + node.getType() + " for " + node.getName());
+			}
+		}
+	}
+	
+	/**
+	 * @return {@code true} if the block of a condition runs
+	 */
+	private static boolean isTrue(Instruction ins, VariableFrame vars)
+	{
+		if (!vars.isSet(ins.slot))
+		{
+			return false;
+		}
+		
+		switch (ins.opcode)
+		{
+			case DescriptorPlan.IF:
+			{
+				return vars.equalsIgnoreCase(ins.slot, ins.text, ins.isNumber, ins.number);
+			}
+			case DescriptorPlan.ELSE:
+			{
+				return !vars.equalsIgnoreCase(ins.slot, ins.text, ins.isNumber, ins.number);
+			}
+			default:
+			{
+				return (vars.parseInt(ins.slot) & ins.node.getValMask()) == ins.node.getValMask();
+			}
+		}
+	}
+	
+	private static void beginIteration(Block block, StringBuilder out)
+	{
+		if (block.beginText != null)
+		{
+			out.append(block.beginText);
+		}
+		
+		if (block.braces)
+		{
+			out.append("{");
+		}
+	}
+	
+	private static void endIteration(Block block, int iteration, int cycleSize, StringBuilder out)
+	{
+		if (block.isNameHidden)
+		{
+			if (block.braces)
+			{
+				out.append("}");
+			}
+			if (iteration < (cycleSize - 1))
+			{
+				out.append(SEMI);
+			}
+		}
+		
+		if (block.endText != null)
+		{
+			if (out.charAt(out.length() - 1) != '\n')
+			{
+				out.append(TAB);
+			}
+			out.append(block.endText);
+		}
+	}
+	
+	/**
+	 * Writes what follows a node once its value or its block is done, conditions write nothing.
+	 */
+	private static void endInstruction(Instruction ins, VariableFrame vars, ByteBuffer data, StringBuilder out)
+	{
+		switch (ins.opcode)
+		{
+			case DescriptorPlan.IF:
+			case DescriptorPlan.ELSE:
+			case DescriptorPlan.MASK:
+			{
+				return;
+			}
+			case DescriptorPlan.CYCLE:
+			{
+				if (ins.node.isNameHidden())
+				{
+					out.append("}");
+				}
+				break;
+			}
+		}
+		
+		if (ins.suffix != null)
+		{
+			out.append(ins.suffix);
+		}
+		
+		if (vars.isSet(ins.debugSlot))
+		{
+			DebugUtil.debugPos(data.position(), ins.node.getName(), vars.toVariant(ins.debugSlot));
+		}
+	}
+	
+	static int getCycleSize(Instruction ins, VariableFrame vars) throws Exception
+	{
+		if (ins.node.getSize() >= 0)
+		{
+			return ins.node.getSize();
+		}
+		
+		if (!vars.isInteger(ins.slot))
+		{
+			throw new Exception("Wrong cycle variable format for cycle: " + ins.node.getName() + " iterator: " + ins.node.getCycleName());
+		}
+		return vars.getInt(ins.slot);
+	}
+	
+	/**
+	 * @param vars the frame storing the value, can be {@code null} if the value is not stored
+	 * @param slot the slot of the value in the frame, -1 if the value is not stored
+	 * @return {@code false} if the value could not be read
+	 */
+	private boolean readVariable(File currentFile, DatCrypter crypter, ParamNode node, VariableFrame vars, int slot, ByteBuffer data, StringBuilder out, boolean isRaw, boolean mass)
 	{
 		try
 		{
@@ -372,15 +951,18 @@ public class DescriptorReader
 					{
 						if (ConfigDebug.DAT_REPLACEMENT_ENUMS && node.isEnum())
 						{
-							out.append(DescriptorParser.getInstance().getEnumNameByIndex(node.getEnumName(), value));
+							node.getEnumTable().appendName(out, value);
 						}
 						else
 						{
 							out.append(value);
 						}
 					}
-					vars.put(node.getName(), new Variant(value, Short.class));
-					break;
+					if (slot >= 0)
+					{
+						vars.setShort(slot, value);
+					}
+					return true;
 				}
 				case UBYTE:
 				{
@@ -389,15 +971,18 @@ public class DescriptorReader
 					{
 						if (ConfigDebug.DAT_REPLACEMENT_ENUMS && node.isEnum())
 						{
-							out.append(DescriptorParser.getInstance().getEnumNameByIndex(node.getEnumName(), value));
+							node.getEnumTable().appendName(out, value);
 						}
 						else
 						{
 							out.append(value);
 						}
 					}
-					vars.put(node.getName(), new Variant(value, Integer.class));
-					break;
+					if (slot >= 0)
+					{
+						vars.setInt(slot, value);
+					}
+					return true;
 				}
 				case SHORT:
 				{
@@ -406,15 +991,18 @@ public class DescriptorReader
 					{
 						if (ConfigDebug.DAT_REPLACEMENT_ENUMS && node.isEnum())
 						{
-							out.append(DescriptorParser.getInstance().getEnumNameByIndex(node.getEnumName(), value));
+							node.getEnumTable().appendName(out, value);
 						}
 						else
 						{
 							out.append(value);
 						}
 					}
-					vars.put(node.getName(), new Variant(value, Short.class));
-					break;
+					if (slot >= 0)
+					{
+						vars.setShort(slot, value);
+					}
+					return true;
 				}
 				case USHORT:
 				{
@@ -423,15 +1011,18 @@ public class DescriptorReader
 					{
 						if (ConfigDebug.DAT_REPLACEMENT_ENUMS && node.isEnum())
 						{
-							out.append(DescriptorParser.getInstance().getEnumNameByIndex(node.getEnumName(), value));
+							node.getEnumTable().appendName(out, value);
 						}
 						else
 						{
 							out.append(value);
 						}
 					}
-					vars.put(node.getName(), new Variant(value, Integer.class));
-					break;
+					if (slot >= 0)
+					{
+						vars.setInt(slot, value);
+					}
+					return true;
 				}
 				case UINT:
 				{
@@ -440,15 +1031,18 @@ public class DescriptorReader
 					{
 						if (ConfigDebug.DAT_REPLACEMENT_ENUMS && node.isEnum())
 						{
-							out.append(DescriptorParser.getInstance().getEnumNameByIndex(node.getEnumName(), value));
+							node.getEnumTable().appendName(out, value);
 						}
 						else
 						{
 							out.append(value);
 						}
 					}
-					vars.put(node.getName(), new Variant(value, Integer.class));
-					break;
+					if (slot >= 0)
+					{
+						vars.setInt(slot, value);
+					}
+					return true;
 				}
 				case INT:
 				{
@@ -457,15 +1051,18 @@ public class DescriptorReader
 					{
 						if (ConfigDebug.DAT_REPLACEMENT_ENUMS && node.isEnum())
 						{
-							out.append(DescriptorParser.getInstance().getEnumNameByIndex(node.getEnumName(), value));
+							node.getEnumTable().appendName(out, value);
 						}
 						else
 						{
 							out.append(value);
 						}
 					}
-					vars.put(node.getName(), new Variant(value, Integer.class));
-					break;
+					if (slot >= 0)
+					{
+						vars.setInt(slot, value);
+					}
+					return true;
 				}
 				case CNTR:
 				{
@@ -474,15 +1071,18 @@ public class DescriptorReader
 					{
 						if (ConfigDebug.DAT_REPLACEMENT_ENUMS && node.isEnum())
 						{
-							out.append(DescriptorParser.getInstance().getEnumNameByIndex(node.getEnumName(), value));
+							node.getEnumTable().appendName(out, value);
 						}
 						else
 						{
 							out.append(value);
 						}
 					}
-					vars.put(node.getName(), new Variant(value, Integer.class));
-					break;
+					if (slot >= 0)
+					{
+						vars.setInt(slot, value);
+					}
+					return true;
 				}
 				case UNICODE:
 				{
@@ -495,12 +1095,19 @@ public class DescriptorReader
 							out.append(str);
 							out.append(RB);
 						}
-						vars.put(node.getName(), new Variant(str, String.class));
-						break;
+						if (slot >= 0)
+						{
+							vars.setString(slot, str);
+						}
+						return true;
 					}
 					
 					out.append(str);
-					break;
+					if (slot >= 0)
+					{
+						vars.setString(slot, str);
+					}
+					return true;
 				}
 				case ASCF:
 				{
@@ -513,22 +1120,32 @@ public class DescriptorReader
 							out.append(str);
 							out.append(RB);
 						}
-						vars.put(node.getName(), new Variant(str, String.class));
-						break;
+						if (slot >= 0)
+						{
+							vars.setString(slot, str);
+						}
+						return true;
 					}
 					
 					out.append(str);
-					break;
+					if (slot >= 0)
+					{
+						vars.setString(slot, str);
+					}
+					return true;
 				}
 				case DOUBLE:
 				{
 					final double value3 = ByteReader.readDouble(data);
 					if (!node.isIterator())
 					{
-						out.append(new BigDecimal(Double.toString(value3)).toPlainString());
+						DecimalUtil.appendPlain(out, value3);
 					}
-					vars.put(node.getName(), new Variant(value3, Double.class));
-					break;
+					if (slot >= 0)
+					{
+						vars.setDouble(slot, value3);
+					}
+					return true;
 				}
 				case FLOAT:
 				{
@@ -537,8 +1154,11 @@ public class DescriptorReader
 					{
 						out.append(value4);
 					}
-					vars.put(node.getName(), new Variant(value4, Float.class));
-					break;
+					if (slot >= 0)
+					{
+						vars.setFloat(slot, value4);
+					}
+					return true;
 				}
 				case LONG:
 				{
@@ -547,8 +1167,11 @@ public class DescriptorReader
 					{
 						out.append(value5);
 					}
-					vars.put(node.getName(), new Variant(value5, Long.class));
-					break;
+					if (slot >= 0)
+					{
+						vars.setLong(slot, value5);
+					}
+					return true;
 				}
 				case RGBA:
 				{
@@ -557,8 +1180,11 @@ public class DescriptorReader
 					{
 						out.append(value6);
 					}
-					vars.put(node.getName(), new Variant(value6, String.class));
-					break;
+					if (slot >= 0)
+					{
+						vars.setString(slot, value6);
+					}
+					return true;
 				}
 				case RGB:
 				{
@@ -567,8 +1193,11 @@ public class DescriptorReader
 					{
 						out.append(value6);
 					}
-					vars.put(node.getName(), new Variant(value6, String.class));
-					break;
+					if (slot >= 0)
+					{
+						vars.setString(slot, value6);
+					}
+					return true;
 				}
 				case HEX:
 				{
@@ -582,8 +1211,11 @@ public class DescriptorReader
 						}
 						out.append(hex);
 					}
-					vars.put(node.getName(), new Variant(value2, Integer.class));
-					break;
+					if (slot >= 0)
+					{
+						vars.setInt(slot, value2);
+					}
+					return true;
 				}
 				case MAP_INT:
 				{
@@ -595,15 +1227,21 @@ public class DescriptorReader
 						{
 							out.append(paramName);
 						}
-						vars.put(node.getName(), new Variant(paramName, String.class));
-						break;
+						if (slot >= 0)
+						{
+							vars.setString(slot, paramName);
+						}
+						return true;
 					}
 					if (!node.isIterator())
 					{
 						out.append(index);
 					}
-					vars.put(node.getName(), new Variant(index, Integer.class));
-					break;
+					if (slot >= 0)
+					{
+						vars.setInt(slot, index);
+					}
+					return true;
 				}
 				default:
 				{
@@ -615,22 +1253,27 @@ public class DescriptorReader
 		{
 			return false;
 		}
-		
-		return true;
 	}
 	
 	private static class Data
 	{
-		public final StringBuilder data;
 		public boolean error;
 		
 		protected Data()
 		{
-			data = new StringBuilder();
 			error = false;
 		}
 	}
 	
+	/**
+	 * The text of a batch of records and the lines logged while it was decoded.
+	 */
+	private static class Batch
+	{
+		public StringBuilder text;
+		public List<String> logs;
+	}
+	
 	public static DescriptorReader getInstance()
 	{
 		return SingletonHolder.INSTANCE;
@@ -16,26 +16,24 @@
  */
 package org.l2jmobius.xml;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.l2jmobius.actions.ActionTask;
 import org.l2jmobius.clientcryptor.crypt.DatCrypter;
 import org.l2jmobius.config.ConfigDebug;
 import org.l2jmobius.config.ConfigWindow;
 import org.l2jmobius.data.GameDataName;
-import org.l2jmobius.util.ByteWriter;
+import org.l2jmobius.util.ByteBuilder;
+import org.l2jmobius.util.DecimalUtil;
 import org.l2jmobius.util.Util;
 import org.l2jmobius.xml.exceptions.CycleArgumentException;
 import org.l2jmobius.xml.exceptions.PackDataException;
@@ -60,7 +58,7 @@ public class DescriptorWriter
 		101,
 		0
 	};
-
+	
 	/**
 	 * Validation result for descriptor data parsing.
 	 */
@@ -109,7 +107,7 @@ public class DescriptorWriter
 			return new ValidationResult(false, message, line, offset);
 		}
 	}
-
+	
 	/**
 	 * Validates descriptor data using the same parsing logic as {@link #parseData(ActionTask, double, File, DatCrypter, Descriptor, String, boolean)}
 	 * without writing bytes.
@@ -143,8 +141,7 @@ public class DescriptorWriter
 			
 			if (desc.isRawData())
 			{
-				final byte[] bytes = parseNodeValue(currentFile, crypter, data, desc.getNodes().get(0), true, mass);
-				if (bytes == null)
+				if (!parseNodeValue(currentFile, crypter, data, desc.getNodes().get(0), true, mass, new ByteBuilder(data.length())))
 				{
 					return ValidationResult.invalid("Failed to parse raw data.", -1, -1);
 				}
@@ -155,9 +152,8 @@ public class DescriptorWriter
 			}
 			else
 			{
-				final String lines = data.replace("\r\n", "\t");
-				final List<WriteData> writeData = new ArrayList<>();
-				packData(actionTask, (actionTask != null) ? actionTask.getWeightValue(30.0, weight) : 0.0, currentFile, crypter, writeData, lines, new HashMap<>(), new HashMap<>(), desc.getNodes(), mass);
+				final RecordLexer lexer = new RecordLexer(data, false);
+				packData(actionTask, (actionTask != null) ? actionTask.getWeightValue(30.0, weight) : 0.0, currentFile, crypter, new ByteBuilder(data.length() / 2), new ArrayList<>(), lexer, 0, lexer.length(), new HashMap<>(), new HashMap<>(), desc.getNodes(), mass);
 				if (actionTask != null)
 				{
 					progress = actionTask.addProgress(progress, 30.0, weight);
@@ -178,13 +174,35 @@ public class DescriptorWriter
 		return ValidationResult.valid();
 	}
 	
+	/**
+	 * @param data the text, its lines ending with CRLF
+	 */
 	public static byte[] parseData(ActionTask actionTask, double weight, File currentFile, DatCrypter crypter, Descriptor desc, String data, boolean mass) throws Exception
 	{
-		final ByteArrayOutputStream stream = new ByteArrayOutputStream(data.length() / 2);
+		return pack(actionTask, weight, currentFile, crypter, desc, data, false, mass);
+	}
+	
+	/**
+	 * Packs a text with its lines ending with a line feed, as given by the editor or a text file.<br>
+	 * The text is read in place, the same as {@link #parseData} of the text with its line feeds replaced by CRLF.<br>
+	 * It is only copied when a formatter or raw data needs it as a string.
+	 */
+	public static byte[] parseText(ActionTask actionTask, double weight, File currentFile, DatCrypter crypter, Descriptor desc, CharSequence text, boolean mass) throws Exception
+	{
+		return pack(actionTask, weight, currentFile, crypter, desc, text, true, mass);
+	}
+	
+	/**
+	 * @param lineFeeds {@code true} if a line feed ends a line, {@code false} if only a CRLF does
+	 */
+	private static byte[] pack(ActionTask actionTask, double weight, File currentFile, DatCrypter crypter, Descriptor desc, CharSequence text, boolean lineFeeds, boolean mass) throws Exception
+	{
+		final ByteBuilder out = new ByteBuilder(text.length() / 2);
 		double progress = actionTask.getCurrentProgress();
 		if ((desc.getFormat() != null) && !ConfigWindow.CURRENT_FORMATTER.equalsIgnoreCase("Disabled"))
 		{
-			data = desc.getFormat().encode(actionTask, actionTask.getWeightValue(20.0, weight), data);
+			text = desc.getFormat().encode(actionTask, actionTask.getWeightValue(20.0, weight), toData(text, lineFeeds));
+			lineFeeds = false;
 			if (actionTask.isCancelled())
 			{
 				return null;
@@ -200,75 +218,120 @@ public class DescriptorWriter
 			}
 			
 			progress = actionTask.addProgress(progress, 50.0, weight);
-			final byte[] bytes = parseNodeValue(currentFile, crypter, data, desc.getNodes().get(0), true, mass);
-			if (bytes != null)
-			{
-				stream.write(bytes);
-			}
-			else
+			if (!parseNodeValue(currentFile, crypter, toData(text, lineFeeds), desc.getNodes().get(0), true, mass, out))
 			{
 				LOGGER.log(Level.WARNING, "Failed to parse raw data.");
 			}
 		}
 		else
 		{
-			final String lines = data.replace("\r\n", "\t");
-			final List<WriteData> writeData = new ArrayList<>();
-			packData(actionTask, actionTask.getWeightValue(30.0, weight), currentFile, crypter, writeData, lines, new HashMap<>(), new HashMap<>(), desc.getNodes(), mass);
+			final RecordLexer lexer = new RecordLexer(text, lineFeeds);
+			final List<SizeHole> holes = new ArrayList<>();
+			encode(actionTask, actionTask.getWeightValue(30.0, weight), currentFile, crypter, desc, out, holes, lexer, mass);
 			if (actionTask.isCancelled())
 			{
 				return null;
 			}
 			
 			progress = actionTask.addProgress(progress, 30.0, weight);
-			final double progressWeight = actionTask.getWeightValue(40.0, weight);
-			final double progressDiff = 100.0 / writeData.size();
-			
-			final ByteBuffer buffer = ByteBuffer.allocateDirect(data.length() * 2);
-			for (WriteData wr : writeData)
-			{
-				if (wr.isIterator())
-				{
-					LOGGER.log(Level.WARNING, ("Found iterator without writed size: " + wr.getParamNode().getName()));
-				}
-				else
-				{
-					buffer.put(wr.getBytes());
-					if (actionTask.isCancelled())
-					{
-						return null;
-					}
-					progress = actionTask.addProgress(progress, progressDiff, progressWeight);
-				}
-			}
-			try
+			for (int i = holes.size() - 1; i >= 0; --i)
 			{
-				buffer.flip();
-				stream.write(ByteBuffer.allocate(buffer.limit()).put(buffer).array());
-				if (actionTask.isCancelled())
-				{
-					return null;
-				}
-			}
-			catch (IOException e)
-			{
-				LOGGER.log(Level.WARNING, e.getMessage(), e);
+				final SizeHole hole = holes.get(i);
+				LOGGER.log(Level.WARNING, ("Found iterator without writed size: " + hole.node.getName()));
+				out.patch(hole.position, hole.reserved, out.length());
 			}
+			progress = actionTask.addProgress(progress, 40.0, weight);
 		}
 		
 		actionTask.addProgress(progress, 10.0, weight);
 		
 		if (desc.isSafePackage())
 		{
-			stream.write(DescriptorWriter.END_FILE_BYTES);
+			out.write(DescriptorWriter.END_FILE_BYTES);
+		}
+		
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Packs the nodes of a descriptor with its generated encoder, or with {@link #packData} if there is none.<br>
+	 * In verify mode the nodes are packed by both, the bytes of {@link #packData} are kept and any difference is logged.
+	 */
+	private static void encode(ActionTask actionTask, double weight, File currentFile, DatCrypter crypter, Descriptor desc, ByteBuilder out, List<SizeHole> holes, RecordLexer lexer, boolean mass) throws Exception
+	{
+		final EncoderGenerator.Factory factory = ConfigDebug.DAT_GENERATED_DECODERS ? desc.getEncoderFactory() : null;
+		if (factory == null)
+		{
+			packData(actionTask, weight, currentFile, crypter, out, holes, lexer, 0, lexer.length(), new HashMap<>(), new HashMap<>(), desc.getNodes(), mass);
+			return;
 		}
 		
-		return stream.toByteArray();
+		if (!ConfigDebug.DAT_VERIFY_DECODERS)
+		{
+			runEncoder(factory, actionTask, weight, currentFile, crypter, out, holes, lexer, mass);
+			return;
+		}
+		
+		packData(actionTask, weight, currentFile, crypter, out, holes, lexer, 0, lexer.length(), new HashMap<>(), new HashMap<>(), desc.getNodes(), mass);
+		if (actionTask.isCancelled())
+		{
+			return;
+		}
+		
+		final ByteBuilder generated = new ByteBuilder(out.length());
+		final List<SizeHole> generatedHoles = new ArrayList<>();
+		try
+		{
+			runEncoder(factory, null, 0.0, currentFile, crypter, generated, generatedHoles, lexer, true);
+		}
+		catch (Exception e)
+		{
+			LOGGER.log(Level.WARNING, "Generated encoder of " + desc.getAlias() + " " + desc.getFilePattern() + " failed on " + currentFile.getName() + ".", e);
+			return;
+		}
+		
+		final byte[] bytes = out.toByteArray();
+		final byte[] generatedBytes = generated.toByteArray();
+		final int diff = Arrays.mismatch(bytes, generatedBytes);
+		if ((diff >= 0) || (holes.size() != generatedHoles.size()))
+		{
+			LOGGER.log(Level.WARNING, "Generated encoder of " + desc.getAlias() + " " + desc.getFilePattern() + " differs on " + currentFile.getName() + " at byte " + diff + ", length " + generatedBytes.length + "/" + bytes.length + ".");
+		}
+	}
+	
+	private static void runEncoder(EncoderGenerator.Factory factory, ActionTask actionTask, double weight, File currentFile, DatCrypter crypter, ByteBuilder out, List<SizeHole> holes, RecordLexer lexer, boolean mass) throws Exception
+	{
+		final GeneratedEncoder encoder = factory.newEncoder();
+		encoder.init(actionTask, weight, currentFile, crypter, factory.getNodes(), mass);
+		try
+		{
+			encoder.run(lexer, out, holes);
+		}
+		catch (CancellationException e)
+		{
+			// The task reports the cancellation.
+		}
 	}
 	
-	private static void packData(ActionTask actionTask, double weight, File currentFile, DatCrypter crypter, List<WriteData> writeData, String lines, Map<String, String> paramMap, Map<ParamNode, String> mapData, List<ParamNode> nodes, boolean mass) throws Exception
+	/**
+	 * @return the text as a string with its lines ending with CRLF
+	 */
+	private static String toData(CharSequence text, boolean lineFeeds)
 	{
-		final List<WriteData> subWriteData = new ArrayList<>();
+		return lineFeeds ? text.toString().replace("\n", "\r\n") : text.toString();
+	}
+	
+	/**
+	 * Writes the values of the nodes to the output as they are parsed.<br>
+	 * The size of a cycle is only known once its records are found, so the space of its iterator is reserved until the cycle patches it.
+	 * @param out the output
+	 * @param holes the iterators without their size yet, in the order of the output. The holes added before this call are not filled by it.
+	 * @param start the start of the text of the nodes
+	 * @param end the end of the text of the nodes
+	 */
+	private static void packData(ActionTask actionTask, double weight, File currentFile, DatCrypter crypter, ByteBuilder out, List<SizeHole> holes, RecordLexer lexer, int start, int end, Map<String, String> paramMap, Map<ParamNode, String> mapData, List<ParamNode> nodes, boolean mass) throws Exception
+	{
+		final int firstHole = holes.size();
 		for (ParamNode node : nodes)
 		{
 			if ((actionTask != null) && actionTask.isCancelled())
@@ -278,27 +341,23 @@ public class DescriptorWriter
 			
 			if (node.isIterator())
 			{
-				subWriteData.add(new WriteIterator(node));
+				final SizeHole hole = new SizeHole(node, out.length(), getReservedSize(node.getType()));
+				out.reserve(hole.reserved);
+				holes.add(hole);
 			}
 			else if (node.getEntityType().isCycle())
 			{
 				if (!node.isNameHidden())
 				{
-					final Pattern pattern = Pattern.compile("\\b" + node.getName().concat("_begin\\b(.*?)\\b").concat(node.getName()).concat("_end\\b"), 32);
-					final Matcher m = pattern.matcher(lines);
-					final List<String> list = new ArrayList<>();
-					while (m.find())
-					{
-						list.add(m.group(1));
-					}
-					
+					final int[] records = lexer.findRecords(node.getName(), start, end);
+					final int count = records.length / 2;
 					final double progress = (actionTask != null) ? actionTask.getCurrentProgress() : 0.0;
-					final double progressWeight = (actionTask != null) ? actionTask.getWeightValue(100.0 / list.size(), weight) : 0.0;
-					writeSize(currentFile, crypter, subWriteData, node, list.size(), mass);
-					for (String str : list)
+					final double progressWeight = (actionTask != null) ? actionTask.getWeightValue(100.0 / count, weight) : 0.0;
+					writeSize(currentFile, crypter, out, holes, firstHole, node, count, mass);
+					for (int i = 0; i < records.length; i += 2)
 					{
-						paramMap.putAll(Util.stringToMap(str));
-						packData(actionTask, progressWeight, currentFile, crypter, subWriteData, str, paramMap, mapData, node.getSubNodes(), mass);
+						lexer.readFields(records[i], records[i + 1], paramMap);
+						packData(actionTask, progressWeight, currentFile, crypter, out, holes, lexer, records[i], records[i + 1], paramMap, mapData, node.getSubNodes(), mass);
 					}
 					
 					if (actionTask == null)
@@ -323,7 +382,7 @@ public class DescriptorWriter
 					
 					if (param.isEmpty() || param.equals("{}"))
 					{
-						writeSize(currentFile, crypter, subWriteData, node, 0, mass);
+						writeSize(currentFile, crypter, out, holes, firstHole, node, 0, mass);
 					}
 					else
 					{
@@ -334,7 +393,7 @@ public class DescriptorWriter
 							throw new PackDataException("Wrong static cycle count for cycle: " + node.getName() + " size: " + subParams.size() + " params: " + param + "\r\n-node: " + node + "\r\n\tparam: " + paramMap.get(node.getName()));
 						}
 						
-						writeSize(currentFile, crypter, subWriteData, node, cycleSize, mass);
+						writeSize(currentFile, crypter, out, holes, firstHole, node, cycleSize, mass);
 						int nPramNode = 0;
 						int nCycleNode = 0;
 						for (ParamNode n : node.getSubNodes())
@@ -368,7 +427,7 @@ public class DescriptorWriter
 									mapData.put(n2, sub2Params.get(paramIndex++));
 								}
 							}
-							packData(null, 0.0, currentFile, crypter, subWriteData, lines, paramMap, mapData, node.getSubNodes(), mass);
+							packData(null, 0.0, currentFile, crypter, out, holes, lexer, start, end, paramMap, mapData, node.getSubNodes(), mass);
 						}
 					}
 				}
@@ -395,7 +454,7 @@ public class DescriptorWriter
 						mapData.put(n3, subParams.get(paramIndex2++));
 					}
 				}
-				packData(null, 0.0, currentFile, crypter, subWriteData, lines, paramMap, mapData, node.getSubNodes(), mass);
+				packData(null, 0.0, currentFile, crypter, out, holes, lexer, start, end, paramMap, mapData, node.getSubNodes(), mass);
 			}
 			else if (node.getEntityType().isVariable())
 			{
@@ -405,13 +464,10 @@ public class DescriptorWriter
 					throw new PackDataException("Not found data for variable: " + node.getName() + "\r\n-node: " + node + "\r\n\tparam: " + paramMap.get(node.getName()));
 				}
 				
-				final byte[] bytes = parseNodeValue(currentFile, crypter, param, node, false, mass);
-				if (bytes == null)
+				if (!parseNodeValue(currentFile, crypter, param, node, false, mass, out))
 				{
 					throw new PackDataException("Node value is null.\r\n-node: " + node + "\r\n\tparam: " + paramMap.get(node.getName()));
 				}
-				
-				subWriteData.add(new WriteBytes(node, bytes));
 			}
 			else if (node.getEntityType().isIf())
 			{
@@ -426,7 +482,7 @@ public class DescriptorWriter
 					continue;
 				}
 				
-				packData(null, 0.0, currentFile, crypter, subWriteData, lines, paramMap, mapData, node.getSubNodes(), mass);
+				packData(null, 0.0, currentFile, crypter, out, holes, lexer, start, end, paramMap, mapData, node.getSubNodes(), mass);
 			}
 			else if (node.getEntityType().isElse())
 			{
@@ -441,7 +497,7 @@ public class DescriptorWriter
 					continue;
 				}
 				
-				packData(null, 0.0, currentFile, crypter, subWriteData, lines, paramMap, mapData, node.getSubNodes(), mass);
+				packData(null, 0.0, currentFile, crypter, out, holes, lexer, start, end, paramMap, mapData, node.getSubNodes(), mass);
 			}
 			else
 			{
@@ -462,13 +518,16 @@ public class DescriptorWriter
 					continue;
 				}
 				
-				packData(null, 0.0, currentFile, crypter, subWriteData, lines, paramMap, mapData, node.getSubNodes(), mass);
+				packData(null, 0.0, currentFile, crypter, out, holes, lexer, start, end, paramMap, mapData, node.getSubNodes(), mass);
 			}
 		}
-		writeData.addAll(subWriteData);
 	}
 	
-	private static byte[] parseNodeValue(File currentFile, DatCrypter crypter, String data, ParamNode node, boolean isRaw, boolean mass)
+	/**
+	 * @param out receives the bytes of the value, nothing is written if it cannot be parsed
+	 * @return {@code true} if the value is written
+	 */
+	static boolean parseNodeValue(File currentFile, DatCrypter crypter, String data, ParamNode node, boolean isRaw, boolean mass, ByteBuilder out)
 	{
 		final ParamType nodeType = node.getType();
 		if (nodeType == null)
@@ -477,12 +536,28 @@ public class DescriptorWriter
 			{
 				LOGGER.log(Level.WARNING, ("Incorrect node type for node " + node));
 			}
-			return null;
+			return false;
 		}
 		
 		if (ConfigDebug.DAT_REPLACEMENT_ENUMS && node.isEnum())
 		{
-			data = String.valueOf(DescriptorParser.getInstance().getEnumNameByName(node.getEnumName(), data)).trim();
+			final EnumTable table = node.getEnumTable();
+			final int slot = (data != null) ? table.find(data) : -1;
+			if (slot >= 0)
+			{
+				final int value = table.getIndex(slot);
+				if (writeEnumValue(nodeType, value, out))
+				{
+					return true;
+				}
+				data = String.valueOf(value);
+			}
+			else
+			{
+				data = String.valueOf(data);
+				table.addMiss(data);
+				data = data.trim();
+			}
 		}
 		
 		try
@@ -491,68 +566,84 @@ public class DescriptorWriter
 			{
 				case UCHAR:
 				{
-					return ByteWriter.writeUByte(Byte.parseByte(data));
+					out.writeByte(Byte.parseByte(data));
+					return true;
 				}
 				case CNTR:
 				{
-					return ByteWriter.writeCompactInt(Integer.parseInt(data));
+					out.writeCompactInt(Integer.parseInt(data));
+					return true;
 				}
 				case UBYTE:
 				{
-					return ByteWriter.writeUByte(Short.parseShort(data));
+					out.writeByte(Short.parseShort(data));
+					return true;
 				}
 				case SHORT:
 				{
-					return ByteWriter.writeShort(Short.parseShort(data));
+					out.writeShort(Short.parseShort(data));
+					return true;
 				}
 				case USHORT:
 				{
-					return ByteWriter.writeUShort(Integer.parseInt(data));
+					out.writeShort(Integer.parseInt(data));
+					return true;
 				}
 				case UINT:
 				case INT:
 				{
-					return ByteWriter.writeInt(Integer.parseInt(data));
+					out.writeInt(Integer.parseInt(data));
+					return true;
 				}
 				case UNICODE:
 				{
-					return ByteWriter.writeUtfString(isRaw ? data : data.substring(1, data.length() - 1), isRaw);
+					out.writeUtfString(isRaw ? data : data.substring(1, data.length() - 1), isRaw);
+					return true;
 				}
 				case ASCF:
 				{
-					return ByteWriter.writeString(isRaw ? data : data.substring(1, data.length() - 1), isRaw);
+					out.writeString(isRaw ? data : data.substring(1, data.length() - 1), isRaw);
+					return true;
 				}
 				case DOUBLE:
 				{
-					return ByteWriter.writeDouble(Double.parseDouble(data));
+					out.writeDouble(DecimalUtil.parseDouble(data));
+					return true;
 				}
 				case FLOAT:
 				{
-					return ByteWriter.writeFloat(Float.parseFloat(data));
+					out.writeFloat(DecimalUtil.parseFloat(data));
+					return true;
 				}
 				case LONG:
 				{
-					return ByteWriter.writeLong(Long.parseLong(data));
+					out.writeLong(Long.parseLong(data));
+					return true;
 				}
 				case RGBA:
 				{
-					return ByteWriter.writeRGBA(data);
+					out.writeRGBA(data);
+					return true;
 				}
 				case RGB:
 				{
-					return ByteWriter.writeRGB(data);
+					out.writeRGB(data);
+					return true;
 				}
 				case HEX:
 				{
-					return ByteWriter.writeByte((byte) (Integer.parseInt(data, 16) & 0xFF));
+					out.writeByte((byte) (Integer.parseInt(data, 16) & 0xFF));
+					return true;
 				}
 				case MAP_INT:
 				{
 					if (ConfigDebug.DAT_REPLACEMENT_NAMES)
 					{
-						return ByteWriter.writeInt(GameDataName.getInstance().getId(currentFile, crypter, node, data, mass));
+						out.writeInt(GameDataName.getInstance().getId(currentFile, crypter, node, data, mass));
+						return true;
 					}
-					return ByteWriter.writeInt(Integer.parseInt(data));
+					out.writeInt(Integer.parseInt(data));
+					return true;
 				}
 				default:
 				{
@@ -569,7 +660,66 @@ public class DescriptorWriter
 			}
 		}
 		
-		return null;
+		return false;
+	}
+	
+	/**
+	 * Writes the index of an enum name without formatting it to be parsed back.
+	 * @param out receives the bytes of the value, nothing is written if the type cannot hold it
+	 * @return {@code true} if the value was written, {@code false} if the type cannot hold it and the value is parsed as text
+	 */
+	private static boolean writeEnumValue(ParamType nodeType, int value, ByteBuilder out)
+	{
+		switch (nodeType)
+		{
+			case UCHAR:
+			{
+				if ((value < Byte.MIN_VALUE) || (value > Byte.MAX_VALUE))
+				{
+					return false;
+				}
+				out.writeByte(value);
+				return true;
+			}
+			case UBYTE:
+			{
+				if ((value < Short.MIN_VALUE) || (value > Short.MAX_VALUE))
+				{
+					return false;
+				}
+				out.writeByte(value);
+				return true;
+			}
+			case SHORT:
+			{
+				if ((value < Short.MIN_VALUE) || (value > Short.MAX_VALUE))
+				{
+					return false;
+				}
+				out.writeShort(value);
+				return true;
+			}
+			case USHORT:
+			{
+				out.writeShort(value);
+				return true;
+			}
+			case CNTR:
+			{
+				out.writeCompactInt(value);
+				return true;
+			}
+			case UINT:
+			case INT:
+			{
+				out.writeInt(value);
+				return true;
+			}
+			default:
+			{
+				return false;
+			}
+		}
 	}
 	
 	private static String getDataString(ParamNode node, String name, Map<String, String> paramMap, Map<ParamNode, String> mapData)
@@ -580,7 +730,7 @@ public class DescriptorWriter
 		}
 		return paramMap.get(name);
 	}
-
+	
 	private static String conciseMessage(String message)
 	{
 		if (message == null)
@@ -608,7 +758,7 @@ public class DescriptorWriter
 		}
 		return (lineBreak > -1) ? message.substring(0, lineBreak) : message;
 	}
-
+	
 	private static ValidationLocation findValidationLocation(String data, String message)
 	{
 		final String key = extractKeyFromMessage(message);
@@ -619,7 +769,7 @@ public class DescriptorWriter
 		
 		return findKeyLocation(data, key);
 	}
-
+	
 	private static String extractKeyFromMessage(String message)
 	{
 		if (message == null)
@@ -656,7 +806,7 @@ public class DescriptorWriter
 		
 		return null;
 	}
-
+	
 	private static ValidationLocation findKeyLocation(String data, String key)
 	{
 		if ((data == null) || (key == null) || key.isEmpty())
@@ -710,7 +860,7 @@ public class DescriptorWriter
 		
 		return ValidationLocation.unknown();
 	}
-
+	
 	private static final class ValidationLocation
 	{
 		private static final ValidationLocation UNKNOWN = new ValidationLocation(-1, -1);
@@ -740,92 +890,103 @@ public class DescriptorWriter
 		}
 	}
 	
-	private static void writeSize(File currentFile, DatCrypter crypter, List<WriteData> writeData, ParamNode node, int cycleSize, boolean mass) throws CycleArgumentException, PackDataException
+	/**
+	 * Patches the iterator of a cycle with its size.<br>
+	 * The bytes written since the iterator are only moved when the size does not fit the reserved space, as a wide {@link ParamType#CNTR}.
+	 * @param firstHole the first hole the cycle can fill
+	 */
+	static void writeSize(File currentFile, DatCrypter crypter, ByteBuilder out, List<SizeHole> holes, int firstHole, ParamNode node, int cycleSize, boolean mass) throws CycleArgumentException, PackDataException
 	{
 		if (!node.isSkipWriteSize() && (node.getSize() < 0))
 		{
-			WriteData iterator = null;
-			for (int i = writeData.size() - 1; i >= 0; --i)
+			int index = holes.size() - 1;
+			while ((index >= firstHole) && !holes.get(index).node.getName().equals(node.getCycleName()))
 			{
-				final WriteData wd = writeData.get(i);
-				if (wd.isIterator() && wd.getParamNode().getName().equals(node.getCycleName()))
-				{
-					iterator = wd;
-					break;
-				}
+				--index;
 			}
 			
-			if (iterator == null)
+			if (index < firstHole)
 			{
 				throw new CycleArgumentException("Not found iterator for cycle: " + node.getName());
 			}
 			
-			final int index = writeData.indexOf(iterator);
-			writeData.remove(index);
-			final ParamNode iteratorNode = iterator.getParamNode();
-			final byte[] bytes = parseNodeValue(currentFile, crypter, String.valueOf(cycleSize), iteratorNode, false, mass);
-			if (bytes == null)
+			final SizeHole hole = holes.remove(index);
+			final int end = out.length();
+			if (!parseNodeValue(currentFile, crypter, String.valueOf(cycleSize), hole.node, false, mass, out))
 			{
 				throw new PackDataException("Cannot write size! Node value is null.\r\n-node: " + node);
 			}
 			
-			writeData.add(index, new WriteBytes(iteratorNode, bytes));
-		}
-	}
-	
-	private static class WriteData
-	{
-		final ParamNode paramNode;
-		
-		WriteData(ParamNode paramNode)
-		{
-			this.paramNode = paramNode;
-		}
-		
-		boolean isIterator()
-		{
-			return false;
-		}
-		
-		ParamNode getParamNode()
-		{
-			return paramNode;
-		}
-		
-		byte[] getBytes()
-		{
-			return new byte[0];
+			final int shift = (out.length() - end) - hole.reserved;
+			out.patch(hole.position, hole.reserved, end);
+			if (shift != 0)
+			{
+				for (int i = index; i < holes.size(); ++i)
+				{
+					holes.get(i).position += shift;
+				}
+			}
 		}
 	}
 	
-	public static class WriteIterator extends WriteData
+	/**
+	 * @return the count of bytes of a size written as the type, a compact int is reserved as a single byte
+	 */
+	static int getReservedSize(ParamType type)
 	{
-		WriteIterator(ParamNode paramNode)
+		if (type == null)
 		{
-			super(paramNode);
+			return 0;
 		}
 		
-		@Override
-		public boolean isIterator()
+		switch (type)
 		{
-			return true;
+			case UCHAR:
+			case UBYTE:
+			case HEX:
+			case CNTR:
+			{
+				return 1;
+			}
+			case SHORT:
+			case USHORT:
+			{
+				return 2;
+			}
+			case UINT:
+			case INT:
+			case FLOAT:
+			case MAP_INT:
+			{
+				return 4;
+			}
+			case LONG:
+			case DOUBLE:
+			{
+				return 8;
+			}
+			default:
+			{
+				return 0;
+			}
 		}
 	}
 	
-	private static class WriteBytes extends WriteData
+	/**
+	 * An iterator of the output waiting for the size of its cycle.
+	 */
+	static class SizeHole
 	{
-		final byte[] bytes;
-		
-		WriteBytes(ParamNode paramNode, byte[] bytes)
-		{
-			super(paramNode);
-			this.bytes = bytes;
-		}
+		final ParamNode node;
+		/** The count of bytes reserved at the position. */
+		final int reserved;
+		int position;
 		
-		@Override
-		public byte[] getBytes()
+		SizeHole(ParamNode node, int position, int reserved)
 		{
-			return bytes;
+			this.node = node;
+			this.position = position;
+			this.reserved = reserved;
 		}
 	}
 }
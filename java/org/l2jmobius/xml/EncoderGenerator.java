@@ -0,0 +1,398 @@
+/*
+ * This file is part of the L2ClientDat project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.l2jmobius.xml;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.l2jmobius.compiler.Compiler;
+
+/**
+ * Writes the nodes of a descriptor as the java source of a {@link GeneratedEncoder}, then compiles it in memory.<br>
+ * Each list of nodes becomes a method, and each node straight-line code finding its text and writing its bytes the same way as {@link DescriptorWriter}.<br>
+ * The values given to the nodes by the hidden cycles and the wrappers are kept by node index instead of in a map.
+ */
+final class EncoderGenerator
+{
+	private static final Logger LOGGER = Logger.getLogger(EncoderGenerator.class.getName());
+	
+	/** Count of nodes per method, so the methods stay small enough to be compiled by the JIT. */
+	private static final int CHUNK_SIZE = 32;
+	
+	private final List<ParamNode> _root;
+	private final List<ParamNode> _nodes = new ArrayList<>();
+	private final Map<ParamNode, Integer> _nodeIndexes = new IdentityHashMap<>();
+	private final Map<List<ParamNode>, String> _listNames = new IdentityHashMap<>();
+	private final List<List<ParamNode>> _lists = new ArrayList<>();
+	private final StringBuilder _src = new StringBuilder();
+	
+	private EncoderGenerator(List<ParamNode> root)
+	{
+		_root = root;
+	}
+	
+	/**
+	 * @param desc the descriptor
+	 * @return the factory of the encoders of the descriptor, or {@code null} if the generated source does not compile
+	 */
+	static Factory generate(Descriptor desc)
+	{
+		final String className = ("Encoder_" + desc.getAlias() + "_" + desc.getFilePattern()).replaceAll("\\W", "_");
+		final EncoderGenerator generator = new EncoderGenerator(desc.getNodes());
+		try
+		{
+			final String source = generator.generate(className);
+			final Compiler compiler = new Compiler();
+			if (!compiler.compile(className, source))
+			{
+				LOGGER.log(Level.WARNING, "Cannot compile the encoder of " + desc.getAlias() + " " + desc.getFilePattern() + ".");
+				return null;
+			}
+			
+			final Class<? extends GeneratedEncoder> encoderClass = compiler.getClassLoader().loadClass(className).asSubclass(GeneratedEncoder.class);
+			return new Factory(encoderClass.getDeclaredConstructor(), generator._nodes.toArray(new ParamNode[generator._nodes.size()]));
+		}
+		catch (Exception e)
+		{
+			LOGGER.log(Level.WARNING, "Cannot load the encoder of " + desc.getAlias() + " " + desc.getFilePattern() + ".", e);
+			return null;
+		}
+	}
+	
+	private String generate(String className)
+	{
+		_src.append("import java.util.Collections;\n");
+		_src.append("import java.util.List;\n");
+		_src.append("import org.l2jmobius.util.ByteBuilder;\n");
+		_src.append("import org.l2jmobius.util.DecimalUtil;\n");
+		_src.append("import org.l2jmobius.util.Util;\n");
+		_src.append("import org.l2jmobius.xml.GeneratedEncoder;\n\n");
+		_src.append("public final class ").append(className).append(" extends GeneratedEncoder\n{\n");
+		_src.append("\t@Override\n\tprotected void encode(ByteBuilder out, int start, int end) throws Exception\n\t{\n");
+		_src.append("\t\t").append(getListName(_root)).append("(out, start, end);\n\t}\n");
+		
+		// The lists met while a list is written are added behind it.
+		for (int i = 0; i < _lists.size(); ++i)
+		{
+			writeList(_lists.get(i));
+		}
+		_src.append("}\n");
+		return _src.toString();
+	}
+	
+	private String getListName(List<ParamNode> nodes)
+	{
+		String name = _listNames.get(nodes);
+		if (name == null)
+		{
+			name = "l" + _listNames.size();
+			_listNames.put(nodes, name);
+			_lists.add(nodes);
+		}
+		return name;
+	}
+	
+	/**
+	 * @return the index of a node given to the encoders, the same node has the same index wherever it is met
+	 */
+	private int getNodeIndex(ParamNode node)
+	{
+		Integer index = _nodeIndexes.get(node);
+		if (index == null)
+		{
+			index = _nodes.size();
+			_nodes.add(node);
+			_nodeIndexes.put(node, index);
+		}
+		return index;
+	}
+	
+	private void writeList(List<ParamNode> nodes)
+	{
+		final String name = _listNames.get(nodes);
+		_src.append("\n\tprivate void ").append(name).append("(ByteBuilder out, int start, int end) throws Exception\n\t{\n");
+		_src.append("\t\tfinal int firstHole = getHoleCount();\n");
+		for (int chunk = 0; chunk < nodes.size(); chunk += CHUNK_SIZE)
+		{
+			_src.append("\t\t").append(name).append('_').append(chunk).append("(out, start, end, firstHole);\n");
+		}
+		_src.append("\t}\n");
+		
+		for (int chunk = 0; chunk < nodes.size(); chunk += CHUNK_SIZE)
+		{
+			_src.append("\n\tprivate void ").append(name).append('_').append(chunk).append("(ByteBuilder out, int start, int end, int firstHole) throws Exception\n\t{\n");
+			for (int i = chunk; i < Math.min(nodes.size(), chunk + CHUNK_SIZE); ++i)
+			{
+				writeNode(nodes.get(i), nodes == _root);
+			}
+			_src.append("\t}\n");
+		}
+	}
+	
+	/**
+	 * @param topLevel {@code true} for a node of the root list, its cycle reports the progress
+	 */
+	private void writeNode(ParamNode node, boolean topLevel)
+	{
+		final int index = getNodeIndex(node);
+		_src.append("\t\t// ").append(node.getName().replaceAll("[^\\w.-]", "_")).append('\n');
+		if (node.isIterator())
+		{
+			_src.append("\t\treserve(").append(index).append(", ").append(DescriptorWriter.getReservedSize(node.getType())).append(");\n");
+		}
+		else if (node.getEntityType().isCycle())
+		{
+			if (!node.isNameHidden())
+			{
+				writeRecords(node, index, topLevel);
+			}
+			else
+			{
+				writeHiddenCycle(node, index);
+			}
+		}
+		else if (node.getEntityType().isWrapper())
+		{
+			_src.append("\t\t{\n");
+			writeGet(index, "wrapper", node.getName());
+			_src.append("\t\t\tfinal List<String> values = Util.splitList(value);\n");
+			writePuts(node, index, "wrapper", "\t\t\t");
+			_src.append("\t\t\t").append(getListName(node.getSubNodes())).append("(out, start, end);\n");
+			_src.append("\t\t}\n");
+		}
+		else if (node.getEntityType().isVariable())
+		{
+			_src.append("\t\t{\n");
+			writeGet(index, "variable", node.getName());
+			writeValue(node, index);
+			_src.append("\t\t}\n");
+		}
+		else if (node.getEntityType().isIf() || node.getEntityType().isElse())
+		{
+			final String kind = node.getEntityType().isIf() ? "if" : "else";
+			_src.append("\t\t{\n");
+			writeGet(index, kind, node.getParamIf());
+			_src.append("\t\t\tif (").append(node.getEntityType().isIf() ? "" : "!").append(literal(node.getValIf())).append(".equalsIgnoreCase(value))\n\t\t\t{\n");
+			_src.append("\t\t\t\t").append(getListName(node.getSubNodes())).append("(out, start, end);\n\t\t\t}\n");
+			_src.append("\t\t}\n");
+		}
+		else if (node.getEntityType().isMask())
+		{
+			final int mask = node.getValMask();
+			_src.append("\t\t{\n");
+			writeGet(index, "mask", node.getParamMask());
+			_src.append("\t\t\tif ((Integer.parseInt(value) & ").append(mask).append(") == ").append(mask).append(")\n\t\t\t{\n");
+			_src.append("\t\t\t\t").append(getListName(node.getSubNodes())).append("(out, start, end);\n\t\t\t}\n");
+			_src.append("\t\t}\n");
+		}
+	}
+	
+	private void writeGet(int index, String kind, String name)
+	{
+		_src.append("\t\t\tfinal String value = get(").append(index).append(", ").append(literal(name)).append(");\n");
+		_src.append("\t\t\tif (value == null)\n\t\t\t{\n\t\t\t\tthrow notFound(\"").append(kind).append("\", ").append(index).append(", ").append(literal(name)).append(");\n\t\t\t}\n");
+	}
+	
+	private void writeRecords(ParamNode node, int index, boolean topLevel)
+	{
+		_src.append("\t\t{\n");
+		_src.append("\t\t\tfinal int[] records = findRecords(").append(literal(node.getName())).append(", start, end);\n");
+		_src.append("\t\t\twriteSize(firstHole, ").append(index).append(", records.length / 2);\n");
+		_src.append("\t\t\tfor (int i = 0; i < records.length; i += 2)\n\t\t\t{\n");
+		_src.append("\t\t\t\tcheckpoint(i, ").append(topLevel ? "records.length" : "0").append(");\n");
+		_src.append("\t\t\t\treadFields(records[i], records[i + 1]);\n");
+		_src.append("\t\t\t\t").append(getListName(node.getSubNodes())).append("(out, records[i], records[i + 1]);\n");
+		_src.append("\t\t\t}\n\t\t}\n");
+	}
+	
+	private void writeHiddenCycle(ParamNode node, int index)
+	{
+		int valueCount = 0;
+		int cycleCount = 0;
+		for (ParamNode subNode : node.getSubNodes())
+		{
+			if (subNode.getEntityType().isCycle())
+			{
+				++cycleCount;
+			}
+			else if (!subNode.isIterator())
+			{
+				++valueCount;
+			}
+		}
+		
+		_src.append("\t\t{\n");
+		writeGet(index, "cycle", node.getName());
+		_src.append("\t\t\tif (value.isEmpty() || value.equals(\"{}\"))\n\t\t\t{\n");
+		_src.append("\t\t\t\twriteSize(firstHole, ").append(index).append(", 0);\n\t\t\t}\n\t\t\telse\n\t\t\t{\n");
+		_src.append("\t\t\t\tfinal List<String> records = Util.splitList(value);\n");
+		if (node.getSize() > 0)
+		{
+			_src.append("\t\t\t\tif (records.size() != ").append(node.getSize()).append(")\n\t\t\t\t{\n");
+			_src.append("\t\t\t\t\tthrow wrongCycleCount(").append(index).append(", records.size(), value);\n\t\t\t\t}\n");
+		}
+		_src.append("\t\t\t\twriteSize(firstHole, ").append(index).append(", records.size());\n");
+		_src.append("\t\t\t\tfor (String record : records)\n\t\t\t\t{\n");
+		_src.append("\t\t\t\t\tfinal List<String> values = ").append(((valueCount > 0) || (cycleCount > 1)) ? "Util.splitList(record)" : "Collections.singletonList(record)").append(";\n");
+		writePuts(node, index, "cycle", "\t\t\t\t\t");
+		_src.append("\t\t\t\t\t").append(getListName(node.getSubNodes())).append("(out, start, end);\n");
+		_src.append("\t\t\t\t}\n\t\t\t}\n\t\t}\n");
+	}
+	
+	/**
+	 * Gives the values of a hidden cycle record or of a wrapper to its sub nodes, in order.
+	 */
+	private void writePuts(ParamNode node, int index, String kind, String indent)
+	{
+		final List<ParamNode> targets = new ArrayList<>();
+		for (ParamNode subNode : node.getSubNodes())
+		{
+			if (!subNode.isIterator() && !subNode.getEntityType().isConstant())
+			{
+				targets.add(subNode);
+			}
+		}
+		
+		if (targets.isEmpty())
+		{
+			return;
+		}
+		
+		_src.append(indent).append("if (values.size() < ").append(targets.size()).append(")\n").append(indent).append("{\n");
+		_src.append(indent).append("\tthrow wrongParamCount(\"").append(kind).append("\", ").append(index).append(", values.size(), value);\n").append(indent).append("}\n");
+		for (int i = 0; i < targets.size(); ++i)
+		{
+			_src.append(indent).append("put(").append(getNodeIndex(targets.get(i))).append(", values.get(").append(i).append("));\n");
+		}
+	}
+	
+	private void writeValue(ParamNode node, int index)
+	{
+		final String write = node.isEnum() ? null : getWrite(node.getType());
+		if (write == null)
+		{
+			_src.append("\t\t\twriteValue(").append(index).append(", value);\n");
+			return;
+		}
+		
+		_src.append("\t\t\ttry\n\t\t\t{\n\t\t\t\t").append(write).append(";\n\t\t\t}\n");
+		_src.append("\t\t\tcatch (Exception e)\n\t\t\t{\n\t\t\t\tthrow notParsed(").append(index).append(", value, e);\n\t\t\t}\n");
+	}
+	
+	/**
+	 * @return the code writing the value of a type, or {@code null} if it is written by {@link GeneratedEncoder#writeValue}
+	 */
+	private static String getWrite(ParamType type)
+	{
+		if (type == null)
+		{
+			return null;
+		}
+		
+		switch (type)
+		{
+			case UCHAR:
+			{
+				return "out.writeByte(Byte.parseByte(value))";
+			}
+			case CNTR:
+			{
+				return "out.writeCompactInt(Integer.parseInt(value))";
+			}
+			case UBYTE:
+			{
+				return "out.writeByte(Short.parseShort(value))";
+			}
+			case SHORT:
+			{
+				return "out.writeShort(Short.parseShort(value))";
+			}
+			case USHORT:
+			{
+				return "out.writeShort(Integer.parseInt(value))";
+			}
+			case UINT:
+			case INT:
+			{
+				return "out.writeInt(Integer.parseInt(value))";
+			}
+			case UNICODE:
+			{
+				return "out.writeUtfString(value.substring(1, value.length() - 1), false)";
+			}
+			case ASCF:
+			{
+				return "out.writeString(value.substring(1, value.length() - 1), false)";
+			}
+			case DOUBLE:
+			{
+				return "out.writeDouble(DecimalUtil.parseDouble(value))";
+			}
+			case FLOAT:
+			{
+				return "out.writeFloat(DecimalUtil.parseFloat(value))";
+			}
+			case LONG:
+			{
+				return "out.writeLong(Long.parseLong(value))";
+			}
+			case HEX:
+			{
+				return "out.writeByte((byte) (Integer.parseInt(value, 16) & 0xFF))";
+			}
+			default:
+			{
+				return null;
+			}
+		}
+	}
+	
+	private static String literal(String text)
+	{
+		return DecoderGenerator.literal(text);
+	}
+	
+	/**
+	 * Creates the encoders of a generated class, one per packed text.
+	 */
+	static final class Factory
+	{
+		private final Constructor<? extends GeneratedEncoder> _constructor;
+		private final ParamNode[] _nodes;
+		
+		Factory(Constructor<? extends GeneratedEncoder> constructor, ParamNode[] nodes)
+		{
+			_constructor = constructor;
+			_nodes = nodes;
+		}
+		
+		ParamNode[] getNodes()
+		{
+			return _nodes;
+		}
+		
+		GeneratedEncoder newEncoder() throws Exception
+		{
+			return _constructor.newInstance();
+		}
+	}
+}
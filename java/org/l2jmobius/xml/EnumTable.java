@@ -0,0 +1,251 @@
+/*
+ * This file is part of the L2ClientDat project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.l2jmobius.xml;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * The names of an enum compiled for lookups without boxing.<br>
+ * Indexes are looked up in an array, offset by the lowest index, unless they are too spread and a sorted array is searched instead.<br>
+ * Names are looked up in an open addressing table of their indexes.<br>
+ * The values without a name are counted instead of logged each time they are met, see {@link DescriptorParser#reportEnumMisses()}.
+ */
+final class EnumTable
+{
+	/** A spread of indexes up to this many times the count of names is stored densely. */
+	private static final int MAX_DENSE_SPREAD = 4;
+	private static final int MIN_DENSE_LENGTH = 64;
+	/** The distinct missing values kept for the report, the others are only counted. */
+	private static final int MAX_REPORTED_MISSES = 32;
+	
+	private final String _name;
+	/** {@code false} for a placeholder of an enum which is not defined. */
+	private final boolean _isDefined;
+	
+	/** The names by index from {@link #_base} when dense, {@code null} when sparse. */
+	private final String[] _dense;
+	private final int _base;
+	/** The sorted indexes and their names when sparse. */
+	private final int[] _sparseIndexes;
+	private final String[] _sparseNames;
+	
+	/** The names hashed with linear probing and their indexes. */
+	private final String[] _keys;
+	private final int[] _values;
+	private final int _mask;
+	
+	private final Map<String, int[]> _misses = new LinkedHashMap<>();
+	private int _missCount;
+	
+	/**
+	 * @param name the name of the enum
+	 * @param names the names by index, {@code null} if the enum is not defined
+	 * @param indexes the indexes by name
+	 */
+	EnumTable(String name, Map<Integer, String> names, Map<String, Integer> indexes)
+	{
+		_name = name;
+		_isDefined = names != null;
+		
+		int min = 0;
+		int max = -1;
+		if ((names != null) && !names.isEmpty())
+		{
+			min = Integer.MAX_VALUE;
+			max = Integer.MIN_VALUE;
+			for (int index : names.keySet())
+			{
+				min = Math.min(min, index);
+				max = Math.max(max, index);
+			}
+		}
+		
+		final long spread = ((long) max - min) + 1;
+		if (spread <= Math.max(MIN_DENSE_LENGTH, (long) MAX_DENSE_SPREAD * ((names != null) ? names.size() : 0)))
+		{
+			_dense = new String[(int) spread];
+			_base = min;
+			if (names != null)
+			{
+				for (Entry<Integer, String> entry : names.entrySet())
+				{
+					_dense[entry.getKey() - min] = entry.getValue();
+				}
+			}
+			_sparseIndexes = null;
+			_sparseNames = null;
+		}
+		else
+		{
+			_dense = null;
+			_base = 0;
+			_sparseIndexes = new int[names.size()];
+			_sparseNames = new String[names.size()];
+			int i = 0;
+			for (int index : names.keySet())
+			{
+				_sparseIndexes[i++] = index;
+			}
+			Arrays.sort(_sparseIndexes);
+			for (i = 0; i < _sparseIndexes.length; ++i)
+			{
+				_sparseNames[i] = names.get(_sparseIndexes[i]);
+			}
+		}
+		
+		final int size = (indexes != null) ? indexes.size() : 0;
+		final int capacity = Integer.highestOneBit(Math.max(1, size) * 2) << 1;
+		_keys = new String[capacity];
+		_values = new int[capacity];
+		_mask = capacity - 1;
+		if (indexes != null)
+		{
+			for (Entry<String, Integer> entry : indexes.entrySet())
+			{
+				int slot = hash(entry.getKey()) & _mask;
+				while (_keys[slot] != null)
+				{
+					slot = (slot + 1) & _mask;
+				}
+				_keys[slot] = entry.getKey();
+				_values[slot] = entry.getValue();
+			}
+		}
+	}
+	
+	/**
+	 * @return the name of the index, {@code null} if it has none
+	 */
+	String getName(int index)
+	{
+		if (_dense != null)
+		{
+			final int i = index - _base;
+			return ((i >= 0) && (i < _dense.length)) ? _dense[i] : null;
+		}
+		
+		final int i = Arrays.binarySearch(_sparseIndexes, index);
+		return (i >= 0) ? _sparseNames[i] : null;
+	}
+	
+	/**
+	 * Appends the name of the index, or the index itself if it has no name.
+	 */
+	void appendName(StringBuilder out, int index)
+	{
+		final String name = getName(index);
+		if (name != null)
+		{
+			out.append(name);
+		}
+		else
+		{
+			out.append(index);
+			addMiss(String.valueOf(index));
+		}
+	}
+	
+	/**
+	 * @return the slot of the name, to be read with {@link #getIndex(int)}, or -1 if there is no such name
+	 */
+	int find(String name)
+	{
+		for (int slot = hash(name) & _mask;; slot = (slot + 1) & _mask)
+		{
+			final String key = _keys[slot];
+			if (key == null)
+			{
+				return -1;
+			}
+			if (key.equals(name))
+			{
+				return slot;
+			}
+		}
+	}
+	
+	/**
+	 * @param slot a slot given by {@link #find(String)}
+	 * @return the index of the name in the slot
+	 */
+	int getIndex(int slot)
+	{
+		return _values[slot];
+	}
+	
+	synchronized void addMiss(String value)
+	{
+		++_missCount;
+		final int[] count = _misses.get(value);
+		if (count != null)
+		{
+			++count[0];
+		}
+		else if (_misses.size() < MAX_REPORTED_MISSES)
+		{
+			_misses.put(value, new int[]
+			{
+				1
+			});
+		}
+	}
+	
+	/**
+	 * @return the report of the values met without a name since the last report, {@code null} if there was none
+	 */
+	synchronized String takeMisses()
+	{
+		if (_missCount == 0)
+		{
+			return null;
+		}
+		
+		final StringBuilder sb = new StringBuilder();
+		sb.append("Enum [").append(_name).append(_isDefined ? "] Enum var not found! var: " : "] enum not found! index: ");
+		int reported = 0;
+		for (Entry<String, int[]> entry : _misses.entrySet())
+		{
+			if (reported++ > 0)
+			{
+				sb.append(", ");
+			}
+			sb.append(entry.getKey()).append(" (x").append(entry.getValue()[0]).append(')');
+		}
+		int listed = 0;
+		for (int[] count : _misses.values())
+		{
+			listed += count[0];
+		}
+		if (listed < _missCount)
+		{
+			sb.append(", ... ").append(_missCount - listed).append(" more");
+		}
+		
+		_misses.clear();
+		_missCount = 0;
+		return sb.toString();
+	}
+	
+	private static int hash(String name)
+	{
+		final int h = name.hashCode();
+		return h ^ (h >>> 16);
+	}
+}
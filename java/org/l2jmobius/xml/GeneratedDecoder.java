@@ -0,0 +1,155 @@
+/*
+ * This file is part of the L2ClientDat project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.l2jmobius.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+
+import org.l2jmobius.L2ClientDat;
+import org.l2jmobius.actions.ActionTask;
+import org.l2jmobius.clientcryptor.crypt.DatCrypter;
+import org.l2jmobius.data.GameDataName;
+
+/**
+ * Base class of the decoders generated by {@link DecoderGenerator}.<br>
+ * The generated classes are loaded by their own class loader, so everything they use from the reader is reached from here.<br>
+ * A decoder instance holds the variables of a single file and is not shared.
+ */
+public abstract class GeneratedDecoder
+{
+	private ActionTask _actionTask;
+	private double _weight;
+	private double _progress;
+	private File _currentFile;
+	private DatCrypter _crypter;
+	private ParamNode[] _nodes;
+	private boolean _mass;
+	private ByteBuffer _data;
+	private TextBuffer _stream;
+	
+	final void init(ActionTask actionTask, double weight, File currentFile, DatCrypter crypter, ParamNode[] nodes, boolean mass)
+	{
+		_actionTask = actionTask;
+		_weight = weight;
+		_progress = actionTask.getCurrentProgress();
+		_currentFile = currentFile;
+		_crypter = crypter;
+		_nodes = nodes;
+		_mass = mass;
+	}
+	
+	/**
+	 * @param stream the buffer of the text drained between the top-level records, {@code null} to keep the whole text
+	 */
+	final boolean run(ByteBuffer data, StringBuilder out, TextBuffer stream) throws Exception
+	{
+		_data = data;
+		_stream = stream;
+		return decode(data, out);
+	}
+	
+	/**
+	 * @param data the data, read from its position
+	 * @param out receives the text
+	 * @return {@code false} if a value could not be read, the text is then written up to the failing value
+	 * @throws Exception if the data does not match the descriptor
+	 */
+	protected abstract boolean decode(ByteBuffer data, StringBuilder out) throws Exception;
+	
+	/**
+	 * Called between the top-level records to report the progress and drain the text.
+	 * @throws CancellationException if the task was cancelled
+	 * @throws IOException if the text cannot be written
+	 */
+	protected final void checkpoint() throws IOException
+	{
+		if (_actionTask.isCancelled())
+		{
+			throw new CancellationException();
+		}
+		
+		if (_data.limit() > 0)
+		{
+			_actionTask.addProgress(_progress, (100.0 * _data.position()) / _data.limit(), _weight);
+		}
+		
+		if (_stream != null)
+		{
+			_stream.drain();
+		}
+	}
+	
+	/**
+	 * Logs a value that could not be read, the same way as the interpreter.
+	 * @param node the index of the node given to the generator
+	 * @param out the text
+	 * @param outStart the start of the text of the failing block
+	 */
+	protected final void fail(int node, StringBuilder out, int outStart)
+	{
+		if (!_mass)
+		{
+			L2ClientDat.addLogConsole(String.format("Error while parsing variable NAME[%s] TYPE[%s] in file NAME[%s]! Parsed data: %s", _nodes[node].getName(), _nodes[node].getType(), _currentFile.getName(), out.substring(outStart)), true);
+		}
+	}
+	
+	protected final String getName(int index) throws Exception
+	{
+		return GameDataName.getInstance().getString(_currentFile, _crypter, index, _mass);
+	}
+	
+	/**
+	 * @param node the index of the node given to the generator
+	 */
+	protected final void appendEnumName(StringBuilder out, int node, int value)
+	{
+		_nodes[node].getEnumTable().appendName(out, value);
+	}
+	
+	protected static String toHex(int value)
+	{
+		final String hex = Integer.toHexString(value).toUpperCase();
+		return (hex.length() == 1) ? "0" + hex : hex;
+	}
+	
+	/**
+	 * @param value the value of a variable of several types
+	 * @param node the index of the cycle node given to the generator
+	 * @return the cycle size
+	 * @throws Exception if the value is not an integer
+	 */
+	protected final int getCycleSize(Object value, int node) throws Exception
+	{
+		if (value instanceof Integer)
+		{
+			return (Integer) value;
+		}
+		
+		if (value instanceof Short)
+		{
+			return (Short) value;
+		}
+		throw wrongCycle(node);
+	}
+	
+	protected final Exception wrongCycle(int node)
+	{
+		return new Exception("Wrong cycle variable format for cycle: " + _nodes[node].getName() + " iterator: " + _nodes[node].getCycleName());
+	}
+}
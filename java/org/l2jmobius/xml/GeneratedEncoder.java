@@ -0,0 +1,224 @@
+/*
+ * This file is part of the L2ClientDat project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.l2jmobius.xml;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.l2jmobius.actions.ActionTask;
+import org.l2jmobius.clientcryptor.crypt.DatCrypter;
+import org.l2jmobius.util.ByteBuilder;
+import org.l2jmobius.xml.DescriptorWriter.SizeHole;
+import org.l2jmobius.xml.exceptions.PackDataException;
+
+/**
+ * Base class of the encoders generated by {@link EncoderGenerator}.<br>
+ * The generated classes are loaded by their own class loader, so everything they use from the writer is reached from here.<br>
+ * An encoder instance holds the fields of a single text and is not shared.
+ */
+public abstract class GeneratedEncoder
+{
+	private static final Logger LOGGER = Logger.getLogger(GeneratedEncoder.class.getName());
+	
+	private ActionTask _actionTask;
+	private double _weight;
+	private double _progress;
+	private File _currentFile;
+	private DatCrypter _crypter;
+	private ParamNode[] _nodes;
+	private boolean _mass;
+	private RecordLexer _lexer;
+	private ByteBuilder _out;
+	private List<SizeHole> _holes;
+	/** The fields of the records read so far, a record only replaces the fields it has. */
+	private final Map<String, String> _fields = new HashMap<>();
+	/** The values given to the nodes by the hidden cycles and the wrappers, by node index, which come before the fields. */
+	private String[] _values;
+	
+	final void init(ActionTask actionTask, double weight, File currentFile, DatCrypter crypter, ParamNode[] nodes, boolean mass)
+	{
+		_actionTask = actionTask;
+		_weight = weight;
+		_progress = (actionTask != null) ? actionTask.getCurrentProgress() : 0.0;
+		_currentFile = currentFile;
+		_crypter = crypter;
+		_nodes = nodes;
+		_mass = mass;
+		_values = new String[nodes.length];
+	}
+	
+	/**
+	 * @param holes receives the iterators left without their size, the same as {@link DescriptorWriter}
+	 */
+	final void run(RecordLexer lexer, ByteBuilder out, List<SizeHole> holes) throws Exception
+	{
+		_lexer = lexer;
+		_out = out;
+		_holes = holes;
+		encode(out, 0, lexer.length());
+	}
+	
+	/**
+	 * @param out receives the bytes
+	 * @param start the start of the text of the nodes
+	 * @param end the end of the text of the nodes
+	 * @throws Exception if the text does not match the descriptor, the same as {@link DescriptorWriter}
+	 */
+	protected abstract void encode(ByteBuilder out, int start, int end) throws Exception;
+	
+	/**
+	 * Called before each record of a cycle to report the progress of the top-level ones.
+	 * @param record the index of the record
+	 * @param count the count of records, 0 if the progress is not reported
+	 * @throws CancellationException if the task was cancelled
+	 */
+	protected final void checkpoint(int record, int count)
+	{
+		if (_actionTask == null)
+		{
+			return;
+		}
+		
+		if (_actionTask.isCancelled())
+		{
+			throw new CancellationException();
+		}
+		
+		if (count > 0)
+		{
+			_actionTask.addProgress(_progress, (100.0 * record) / count, _weight);
+		}
+	}
+	
+	protected final int[] findRecords(String name, int start, int end)
+	{
+		return _lexer.findRecords(name, start, end);
+	}
+	
+	protected final void readFields(int start, int end)
+	{
+		_lexer.readFields(start, end, _fields);
+	}
+	
+	/**
+	 * @param node the index of the node given to the generator
+	 * @param name the name of the field of the node
+	 * @return the value given to the node, else the field, or {@code null} if there is none
+	 */
+	protected final String get(int node, String name)
+	{
+		final String value = _values[node];
+		return (value != null) ? value : _fields.get(name);
+	}
+	
+	/**
+	 * @param node the index of the node given to the generator
+	 */
+	protected final void put(int node, String value)
+	{
+		_values[node] = value;
+	}
+	
+	protected final int getHoleCount()
+	{
+		return _holes.size();
+	}
+	
+	/**
+	 * Reserves the space of an iterator until its cycle writes its size.
+	 * @param node the index of the iterator node given to the generator
+	 * @param size the count of bytes reserved
+	 */
+	protected final void reserve(int node, int size)
+	{
+		_holes.add(new SizeHole(_nodes[node], _out.length(), size));
+		_out.reserve(size);
+	}
+	
+	/**
+	 * @param firstHole the first hole the cycle can fill
+	 * @param node the index of the cycle node given to the generator
+	 */
+	protected final void writeSize(int firstHole, int node, int size) throws Exception
+	{
+		DescriptorWriter.writeSize(_currentFile, _crypter, _out, _holes, firstHole, _nodes[node], size, _mass);
+	}
+	
+	/**
+	 * Writes a value the generated code does not write itself, as an enum, a name or a color.
+	 * @param node the index of the node given to the generator
+	 */
+	protected final void writeValue(int node, String value) throws PackDataException
+	{
+		if (!DescriptorWriter.parseNodeValue(_currentFile, _crypter, value, _nodes[node], false, _mass, _out))
+		{
+			throw notWritten(node);
+		}
+	}
+	
+	/**
+	 * Logs a value that could not be parsed, the same way as the interpreter.
+	 * @param node the index of the node given to the generator
+	 * @return the exception to throw
+	 */
+	protected final PackDataException notParsed(int node, String value, Exception e)
+	{
+		if (!_mass)
+		{
+			LOGGER.log(Level.WARNING, ("Failed to parse value for node " + _nodes[node] + " data: " + value), e);
+		}
+		return notWritten(node);
+	}
+	
+	private PackDataException notWritten(int node)
+	{
+		return new PackDataException("Node value is null.\r\n-node: " + _nodes[node] + "\r\n\tparam: " + _fields.get(_nodes[node].getName()));
+	}
+	
+	/**
+	 * @param kind the kind of the node, as {@code cycle} or {@code if}
+	 * @param node the index of the node given to the generator
+	 * @param name the name of the field of the node
+	 */
+	protected final PackDataException notFound(String kind, int node, String name)
+	{
+		return new PackDataException("Not found data for " + kind + ": " + name + "\r\n-node: " + _nodes[node] + "\r\n\tparam: " + _fields.get(name));
+	}
+	
+	/**
+	 * @param node the index of the cycle node given to the generator
+	 */
+	protected final PackDataException wrongCycleCount(int node, int size, String value)
+	{
+		return new PackDataException("Wrong static cycle count for cycle: " + _nodes[node].getName() + " size: " + size + " params: " + value + "\r\n-node: " + _nodes[node] + "\r\n\tparam: " + _fields.get(_nodes[node].getName()));
+	}
+	
+	/**
+	 * @param kind the kind of the node, {@code cycle} or {@code wrapper}
+	 * @param node the index of the node given to the generator
+	 * @param index the index of the first missing value
+	 */
+	protected final PackDataException wrongParamCount(String kind, int node, int index, String value)
+	{
+		return new PackDataException("Wrong param count for " + kind + ": " + _nodes[node].getName() + ", paramIndex: " + index + ", params: " + value + "\r\n-node: " + _nodes[node] + "\r\n\tparam: " + _fields.get(_nodes[node].getName()));
+	}
+}
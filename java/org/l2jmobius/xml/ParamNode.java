@@ -31,6 +31,7 @@ public class ParamNode
 	private boolean _isIterator;
 	private boolean _skipWriteSize;
 	private String _enumName;
+	private EnumTable _enumTable;
 	private String _paramIf;
 	private String _valIf;
 	private String _paramMask;
@@ -192,6 +193,7 @@ public class ParamNode
 	public void setEnumName(String enumName)
 	{
 		_enumName = enumName;
+		_enumTable = null;
 	}
 	
 	public String getEnumName()
@@ -199,6 +201,18 @@ public class ParamNode
 		return _enumName;
 	}
 	
+	/**
+	 * @return the compiled enum of the node, looked up once as the enums are parsed after the definitions
+	 */
+	EnumTable getEnumTable()
+	{
+		if (_enumTable == null)
+		{
+			_enumTable = DescriptorParser.getInstance().getEnumTable(_enumName);
+		}
+		return _enumTable;
+	}
+	
 	public String getParamMask()
 	{
 		return _paramMask;
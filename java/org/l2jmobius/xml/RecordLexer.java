@@ -0,0 +1,231 @@
+/*
+ * This file is part of the L2ClientDat project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.l2jmobius.xml;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Reads the records and fields of a text written by {@link DescriptorReader} in place, the text is never split nor copied.<br>
+ * The records of a cycle are the texts between {@code name_begin} and {@code name_end}, found as the pattern {@code \bname_begin\b(.*?)\bname_end\b} finds them.<br>
+ * The fields of a record are its {@code name=value} parts between tabs or line ends, the name ends at the first {@code =}.<br>
+ * The line ends are read where they are, as if they were replaced by tabs.
+ */
+final class RecordLexer
+{
+	private static final String BEGIN = "_begin";
+	private static final String END = "_end";
+	
+	private final CharSequence _text;
+	/** {@code true} if a line feed ends a line, {@code false} if only a CRLF does. */
+	private final boolean _lineFeeds;
+	/** The names of the fields met, so the name of a field is only allocated once. */
+	private String[] _names = new String[64];
+	private int _nameCount;
+	
+	/**
+	 * @param text the text
+	 * @param lineFeeds {@code true} if a line feed ends a line, {@code false} if only a CRLF does
+	 */
+	RecordLexer(CharSequence text, boolean lineFeeds)
+	{
+		_text = text;
+		_lineFeeds = lineFeeds;
+	}
+	
+	int length()
+	{
+		return _text.length();
+	}
+	
+	/**
+	 * Finds the records of a cycle within a part of the text, which is read as if nothing was around it.
+	 * @param name the name of the cycle
+	 * @param start the start of the part
+	 * @param end the end of the part
+	 * @return the start and the end of each record, one after the other
+	 */
+	int[] findRecords(String name, int start, int end)
+	{
+		final String begin = name.concat(BEGIN);
+		final String stop = name.concat(END);
+		int[] bounds = new int[16];
+		int count = 0;
+		int position = start;
+		while (true)
+		{
+			final int first = find(begin, position, start, end);
+			if (first < 0)
+			{
+				break;
+			}
+			
+			final int recordStart = first + begin.length();
+			final int recordEnd = find(stop, recordStart, start, end);
+			if (recordEnd < 0)
+			{
+				// A later begin would have no end either.
+				break;
+			}
+			
+			if ((count + 2) > bounds.length)
+			{
+				bounds = Arrays.copyOf(bounds, bounds.length * 2);
+			}
+			bounds[count++] = recordStart;
+			bounds[count++] = recordEnd;
+			position = recordEnd + stop.length();
+		}
+		return (count == bounds.length) ? bounds : Arrays.copyOf(bounds, count);
+	}
+	
+	/**
+	 * Puts the fields of a part of the text, a later field replaces an earlier one of the same name.
+	 * @param start the start of the part
+	 * @param end the end of the part
+	 * @param fields receives the values by name
+	 */
+	void readFields(int start, int end, Map<String, String> fields)
+	{
+		int position = start;
+		int equal = -1;
+		for (int i = start; i <= end; ++i)
+		{
+			final int separator = (i < end) ? getSeparatorLength(i) : 1;
+			if (separator > 0)
+			{
+				if (equal >= 0)
+				{
+					fields.put(getName(position, equal), _text.subSequence(equal + 1, i).toString());
+					equal = -1;
+				}
+				i += separator - 1;
+				position = i + 1;
+			}
+			else if ((_text.charAt(i) == '=') && (equal < 0))
+			{
+				equal = i;
+			}
+		}
+	}
+	
+	/**
+	 * @return the count of chars of the tab or line end at the index, 0 if there is none
+	 */
+	private int getSeparatorLength(int index)
+	{
+		final char c = _text.charAt(index);
+		if ((c == '\t') || (_lineFeeds && (c == '\n')))
+		{
+			return 1;
+		}
+		return (!_lineFeeds && (c == '\r') && ((index + 1) < _text.length()) && (_text.charAt(index + 1) == '\n')) ? 2 : 0;
+	}
+	
+	/**
+	 * @return the first match of the marker from {@code position} with no word char on its sides, or -1
+	 */
+	private int find(String marker, int position, int start, int end)
+	{
+		final int last = end - marker.length();
+		final char first = marker.charAt(0);
+		for (int i = position; i <= last; ++i)
+		{
+			if ((_text.charAt(i) == first) && regionMatches(i + 1, marker, 1) && ((i == start) || !isWordChar(_text.charAt(i - 1))) && ((i == last) || !isWordChar(_text.charAt(i + marker.length()))))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return the name of the text part, the same string each time it is met
+	 */
+	private String getName(int start, int end)
+	{
+		final int length = end - start;
+		int hash = 0;
+		for (int i = start; i < end; ++i)
+		{
+			hash = (31 * hash) + _text.charAt(i);
+		}
+		
+		final int mask = _names.length - 1;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		String name;
+		while ((name = _names[slot]) != null)
+		{
+			if ((name.length() == length) && regionMatches(start, name, 0))
+			{
+				return name;
+			}
+			slot = (slot + 1) & mask;
+		}
+		
+		name = _text.subSequence(start, end).toString();
+		_names[slot] = name;
+		if ((++_nameCount * 2) > _names.length)
+		{
+			rehash();
+		}
+		return name;
+	}
+	
+	/**
+	 * @return {@code true} if the text at the index holds the chars of the string from its offset
+	 */
+	private boolean regionMatches(int index, String string, int offset)
+	{
+		for (int i = offset; i < string.length(); ++i)
+		{
+			if (_text.charAt((index + i) - offset) != string.charAt(i))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private void rehash()
+	{
+		final String[] names = _names;
+		_names = new String[names.length * 2];
+		final int mask = _names.length - 1;
+		for (String name : names)
+		{
+			if (name != null)
+			{
+				final int hash = name.hashCode();
+				int slot = (hash ^ (hash >>> 16)) & mask;
+				while (_names[slot] != null)
+				{
+					slot = (slot + 1) & mask;
+				}
+				_names[slot] = name;
+			}
+		}
+	}
+	
+	/**
+	 * @return {@code true} for the word chars of a pattern boundary
+	 */
+	private static boolean isWordChar(char c)
+	{
+		return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9')) || (c == '_');
+	}
+}
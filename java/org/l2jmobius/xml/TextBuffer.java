@@ -0,0 +1,228 @@
+/*
+ * This file is part of the L2ClientDat project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.l2jmobius.xml;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The single output of a decoded file, shared by all its blocks.<br>
+ * Blocks remember where their text starts with a mark instead of writing into their own builder.<br>
+ * The builder is pooled per thread, so a mass unpack does not grow a new one for every file.<br>
+ * With a writer, the decoded records can be drained out of the builder, which then only holds the text of a record.
+ */
+final class TextBuffer
+{
+	/** Bigger builders are left to the garbage collector once released, so a pooled thread never pins the builder of a large file. */
+	private static final int MAX_POOLED_CAPACITY = 4 * 1024 * 1024;
+	/** The largest capacity a builder is sized to before decoding, a larger text grows it. */
+	private static final int MAX_INITIAL_CAPACITY = 32 * 1024 * 1024;
+	/** The expected count of chars written per byte of data. */
+	private static final int CHARS_PER_BYTE = 3;
+	/** The initial capacity of a buffer drained to a writer. */
+	private static final int STREAM_CAPACITY = 256 * 1024;
+	private static final int WRITE_CHUNK_SIZE = 8 * 1024;
+	
+	private static final ThreadLocal<StringBuilder> POOL = new ThreadLocal<>();
+	
+	private final Writer _writer;
+	private StringBuilder _builder;
+	/** The final text when it was not decoded into the builder. */
+	private String _text;
+	private char[] _chunk;
+	private long _written;
+	
+	private TextBuffer(StringBuilder builder, Writer writer)
+	{
+		_builder = builder;
+		_writer = writer;
+	}
+	
+	/**
+	 * @param dataSize the size of the decoded data, used to size the builder once
+	 * @param writer receives the text, {@code null} to keep it in memory
+	 * @return an empty buffer, to be released once its text is taken
+	 */
+	static TextBuffer acquire(int dataSize, Writer writer)
+	{
+		StringBuilder builder = POOL.get();
+		if (builder != null)
+		{
+			POOL.remove();
+			builder.setLength(0);
+		}
+		else
+		{
+			builder = new StringBuilder();
+		}
+		builder.ensureCapacity((writer != null) ? STREAM_CAPACITY : (int) Math.min(MAX_INITIAL_CAPACITY, (long) dataSize * CHARS_PER_BYTE));
+		return new TextBuffer(builder, writer);
+	}
+	
+	/**
+	 * Gives the builder back to the pool of the current thread. A buffer that is not released is only garbage collected.
+	 */
+	void release()
+	{
+		if ((_builder != null) && (_builder.capacity() <= MAX_POOLED_CAPACITY))
+		{
+			POOL.set(_builder);
+		}
+		_builder = null;
+	}
+	
+	StringBuilder getBuilder()
+	{
+		return _builder;
+	}
+	
+	/**
+	 * @return the position of the next written char
+	 */
+	int mark()
+	{
+		return _builder.length();
+	}
+	
+	/**
+	 * Drops everything written since the mark.
+	 * @param mark a position given by {@link #mark()}
+	 */
+	void rollback(int mark)
+	{
+		_builder.setLength(mark);
+	}
+	
+	/**
+	 * Replaces the decoded text by a final text, which is not trimmed.
+	 */
+	void setText(String text)
+	{
+		_text = text;
+	}
+	
+	/**
+	 * @return the final text if one was set, or the decoded text without its leading and trailing whitespaces
+	 */
+	String getText()
+	{
+		return (_text != null) ? _text : toTrimmedString();
+	}
+	
+	/**
+	 * Writes the decoded text that cannot change anymore to the writer, nothing is done without a writer.<br>
+	 * The text from the last non blank char is kept: its end may still be trimmed, and the last char is read when a cycle name ends.
+	 * The marks taken before are no longer valid.
+	 * @throws IOException
+	 */
+	void drain() throws IOException
+	{
+		if (_writer == null)
+		{
+			return;
+		}
+		
+		int end = _builder.length();
+		while ((end > 0) && (_builder.charAt(end - 1) <= ' '))
+		{
+			--end;
+		}
+		
+		final int keep = end - 1;
+		if (keep <= 0)
+		{
+			return;
+		}
+		
+		int start = 0;
+		if (_written == 0)
+		{
+			while (_builder.charAt(start) <= ' ')
+			{
+				++start;
+			}
+		}
+		write(start, keep);
+		_builder.delete(0, keep);
+	}
+	
+	/**
+	 * Writes the rest of the text to the writer, trimmed as {@link #getText()} would return it.
+	 * @return the count of chars written in all
+	 * @throws IOException
+	 */
+	long finish() throws IOException
+	{
+		if (_text != null)
+		{
+			_writer.write(_text);
+			_written += _text.length();
+			return _written;
+		}
+		
+		int start = 0;
+		int end = _builder.length();
+		if (_written == 0)
+		{
+			while ((start < end) && (_builder.charAt(start) <= ' '))
+			{
+				++start;
+			}
+		}
+		while ((end > start) && (_builder.charAt(end - 1) <= ' '))
+		{
+			--end;
+		}
+		write(start, end);
+		_builder.setLength(0);
+		return _written;
+	}
+	
+	private void write(int start, int end) throws IOException
+	{
+		if (_chunk == null)
+		{
+			_chunk = new char[WRITE_CHUNK_SIZE];
+		}
+		
+		for (int position = start; position < end; position += _chunk.length)
+		{
+			final int length = Math.min(_chunk.length, end - position);
+			_builder.getChars(position, position + length, _chunk, 0);
+			_writer.write(_chunk, 0, length);
+		}
+		_written += end - start;
+	}
+	
+	/**
+	 * @return the whole text without its leading and trailing whitespaces, copied once
+	 */
+	private String toTrimmedString()
+	{
+		int start = 0;
+		int end = _builder.length();
+		while ((start < end) && (_builder.charAt(start) <= ' '))
+		{
+			++start;
+		}
+		while ((end > start) && (_builder.charAt(end - 1) <= ' '))
+		{
+			--end;
+		}
+		return _builder.substring(start, end);
+	}
+}
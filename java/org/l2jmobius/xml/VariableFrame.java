@@ -0,0 +1,224 @@
+/*
+ * This file is part of the L2ClientDat project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.l2jmobius.xml;
+
+/**
+ * The variables of a decoded file, indexed by the slots of a {@link DescriptorPlan}.<br>
+ * Numbers are kept unboxed with the type the interpreter used to give them, so conditions and cycles see the same values as before.
+ */
+final class VariableFrame
+{
+	private static final byte NONE = 0;
+	private static final byte INT = 1;
+	private static final byte SHORT = 2;
+	private static final byte LONG = 3;
+	private static final byte FLOAT = 4;
+	private static final byte DOUBLE = 5;
+	private static final byte STRING = 6;
+	
+	private final byte[] _types;
+	private final long[] _values;
+	private final String[] _strings;
+	
+	VariableFrame(int slotCount)
+	{
+		_types = new byte[slotCount];
+		_values = new long[slotCount];
+		_strings = new String[slotCount];
+	}
+	
+	/**
+	 * @return a frame holding the same values, the records of a batch are decoded from it
+	 */
+	VariableFrame copy()
+	{
+		final VariableFrame copy = new VariableFrame(_types.length);
+		copy.copyFrom(this);
+		return copy;
+	}
+	
+	void copyFrom(VariableFrame frame)
+	{
+		System.arraycopy(frame._types, 0, _types, 0, _types.length);
+		System.arraycopy(frame._values, 0, _values, 0, _values.length);
+		System.arraycopy(frame._strings, 0, _strings, 0, _strings.length);
+	}
+	
+	void setInt(int slot, int value)
+	{
+		_types[slot] = INT;
+		_values[slot] = value;
+	}
+	
+	void setShort(int slot, short value)
+	{
+		_types[slot] = SHORT;
+		_values[slot] = value;
+	}
+	
+	void setLong(int slot, long value)
+	{
+		_types[slot] = LONG;
+		_values[slot] = value;
+	}
+	
+	void setFloat(int slot, float value)
+	{
+		_types[slot] = FLOAT;
+		_values[slot] = Float.floatToRawIntBits(value);
+	}
+	
+	void setDouble(int slot, double value)
+	{
+		_types[slot] = DOUBLE;
+		_values[slot] = Double.doubleToRawLongBits(value);
+	}
+	
+	void setString(int slot, String value)
+	{
+		_types[slot] = STRING;
+		_strings[slot] = value;
+	}
+	
+	boolean isSet(int slot)
+	{
+		return (slot >= 0) && (_types[slot] != NONE);
+	}
+	
+	/**
+	 * @param slot the slot
+	 * @param text the compared text
+	 * @param isNumber {@code true} if the text is the canonical form of {@code number}
+	 * @param number the integer value of the text
+	 * @return {@code true} if the text of the value equals the given text ignoring case
+	 */
+	boolean equalsIgnoreCase(int slot, String text, boolean isNumber, int number)
+	{
+		switch (_types[slot])
+		{
+			case INT:
+			case SHORT:
+			{
+				return isNumber && (_values[slot] == number);
+			}
+			default:
+			{
+				return toString(slot).equalsIgnoreCase(text);
+			}
+		}
+	}
+	
+	/**
+	 * @return the value of a slot as an integer, parsed from its text unless it is an integer
+	 * @throws NumberFormatException if the value is not an integer
+	 */
+	int parseInt(int slot)
+	{
+		switch (_types[slot])
+		{
+			case INT:
+			case SHORT:
+			{
+				return (int) _values[slot];
+			}
+			default:
+			{
+				return Integer.parseInt(toString(slot));
+			}
+		}
+	}
+	
+	/**
+	 * @return {@code true} if the slot holds an int or a short, the values accepted as a cycle size
+	 */
+	boolean isInteger(int slot)
+	{
+		return isSet(slot) && ((_types[slot] == INT) || (_types[slot] == SHORT));
+	}
+	
+	int getInt(int slot)
+	{
+		return (int) _values[slot];
+	}
+	
+	String toString(int slot)
+	{
+		switch (_types[slot])
+		{
+			case INT:
+			case SHORT:
+			case LONG:
+			{
+				return Long.toString(_values[slot]);
+			}
+			case FLOAT:
+			{
+				return Float.toString(Float.intBitsToFloat((int) _values[slot]));
+			}
+			case DOUBLE:
+			{
+				return Double.toString(Double.longBitsToDouble(_values[slot]));
+			}
+			case STRING:
+			{
+				return String.valueOf(_strings[slot]);
+			}
+			default:
+			{
+				return null;
+			}
+		}
+	}
+	
+	/**
+	 * @return the value of a slot for position debugging, {@code null} if the slot is not set
+	 */
+	Variant toVariant(int slot)
+	{
+		switch (_types[slot])
+		{
+			case INT:
+			{
+				return new Variant((int) _values[slot], Integer.class);
+			}
+			case SHORT:
+			{
+				return new Variant((short) _values[slot], Short.class);
+			}
+			case LONG:
+			{
+				return new Variant(_values[slot], Long.class);
+			}
+			case FLOAT:
+			{
+				return new Variant(Float.intBitsToFloat((int) _values[slot]), Float.class);
+			}
+			case DOUBLE:
+			{
+				return new Variant(Double.longBitsToDouble(_values[slot]), Double.class);
+			}
+			case STRING:
+			{
+				return new Variant(_strings[slot], String.class);
+			}
+			default:
+			{
+				return null;
+			}
+		}
+	}
+}
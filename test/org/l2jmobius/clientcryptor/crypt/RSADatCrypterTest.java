@@ -0,0 +1,144 @@
+/*
+ * This file is part of the L2ClientDat project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.l2jmobius.clientcryptor.crypt;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import javax.crypto.Cipher;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class RSADatCrypterTest
+{
+	private static final int BLOCK_SIZE = 128;
+	private static final int BLOCK_DATA_SIZE = 124;
+	
+	private static RSAPrivateKey _privateKey;
+	private static RSADatCrypter _decrypter;
+	private static RSADatCrypter _encrypter;
+	
+	@BeforeAll
+	public static void createKeys() throws Exception
+	{
+		final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(1024);
+		final KeyPair pair = generator.generateKeyPair();
+		_privateKey = (RSAPrivateKey) pair.getPrivate();
+		final RSAPublicKey publicKey = (RSAPublicKey) pair.getPublic();
+		_decrypter = new RSADatCrypter("test", 413, publicKey.getModulus().toString(16), publicKey.getPublicExponent().toString(16), true);
+		_encrypter = new RSADatCrypter("test", 413, _privateKey.getModulus().toString(16), _privateKey.getPrivateExponent().toString(16), false);
+	}
+	
+	@Test
+	public void decryptsWhatItEncrypts() throws Exception
+	{
+		final byte[] data = createData(100000);
+		final ByteBuffer body;
+		try (DatCrypterSession session = _encrypter.newSession())
+		{
+			session.update(data);
+			body = session.encryptResult();
+		}
+		assertArrayEquals(data, decrypt(body));
+	}
+	
+	@Test
+	public void inflatedSizeLargerThanTheData() throws Exception
+	{
+		// The array of the declared size cannot even be allocated, the data is kept anyway.
+		final byte[] data = createData(5000);
+		assertArrayEquals(data, decrypt(encrypt(Integer.MAX_VALUE, data)));
+	}
+	
+	@Test
+	public void inflatedSizeSmallerThanTheData() throws Exception
+	{
+		final byte[] data = createData(5000);
+		assertArrayEquals(data, decrypt(encrypt(10, data)));
+	}
+	
+	private static byte[] createData(int size)
+	{
+		final byte[] data = new byte[size];
+		for (int i = 0; i < size; ++i)
+		{
+			data[i] = (byte) ((i * 7) % 13);
+		}
+		return data;
+	}
+	
+	private static byte[] decrypt(ByteBuffer body) throws Exception
+	{
+		try (DatCrypterSession session = _decrypter.newSession())
+		{
+			assertTrue(session.update(body));
+			final ByteBuffer result = session.decryptResult();
+			final byte[] bytes = new byte[result.remaining()];
+			result.get(bytes);
+			return bytes;
+		}
+	}
+	
+	/**
+	 * Encrypts the data as a 41x file does, with the inflated size given to the header instead of the real one.
+	 */
+	private static ByteBuffer encrypt(int inflatedSize, byte[] data) throws Exception
+	{
+		final ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+		deflated.write(inflatedSize & 0xFF);
+		deflated.write((inflatedSize >> 8) & 0xFF);
+		deflated.write((inflatedSize >> 16) & 0xFF);
+		deflated.write((inflatedSize >> 24) & 0xFF);
+		final Deflater deflater = new Deflater();
+		deflater.setInput(data);
+		deflater.finish();
+		final byte[] buffer = new byte[1024];
+		while (!deflater.finished())
+		{
+			deflated.write(buffer, 0, deflater.deflate(buffer));
+		}
+		deflater.end();
+		
+		final byte[] payload = deflated.toByteArray();
+		final Cipher cipher = Cipher.getInstance("RSA/ECB/nopadding");
+		cipher.init(Cipher.ENCRYPT_MODE, _privateKey);
+		final int blockCount = (payload.length + BLOCK_DATA_SIZE - 1) / BLOCK_DATA_SIZE;
+		final byte[] body = new byte[blockCount * BLOCK_SIZE];
+		final byte[] block = new byte[BLOCK_SIZE];
+		for (int i = 0; i < blockCount; ++i)
+		{
+			final int offset = i * BLOCK_DATA_SIZE;
+			final int len = Math.min(BLOCK_DATA_SIZE, payload.length - offset);
+			Arrays.fill(block, (byte) 0);
+			block[3] = (byte) len;
+			System.arraycopy(payload, offset, block, BLOCK_SIZE - len - ((BLOCK_DATA_SIZE - len) % 4), len);
+			cipher.doFinal(block, 0, BLOCK_SIZE, body, i * BLOCK_SIZE);
+		}
+		return ByteBuffer.wrap(body);
+	}
+}